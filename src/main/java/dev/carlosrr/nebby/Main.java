@@ -3,10 +3,17 @@ package dev.carlosrr.nebby;
 import javax.swing.*;
 
 import com.formdev.flatlaf.intellijthemes.materialthemeuilite.FlatGitHubDarkIJTheme;
+import dev.carlosrr.nebby.methods.HeadlessIndexer;
 import dev.carlosrr.nebby.panels.AppPanel;
 
 public class Main {
     public static void main(String[] args) {
+        // Command-line indexing runs before anything loads AWT
+        if (HeadlessIndexer.isCommandLine(args)) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(HeadlessIndexer.run(args));
+        }
+
         try {
             UIManager.setLookAndFeel(new FlatGitHubDarkIJTheme());
         } catch (UnsupportedLookAndFeelException e) {
@@ -1,33 +1,48 @@
 package dev.carlosrr.nebby.dialogs;
 
+import dev.carlosrr.nebby.methods.CrawlMode;
+import dev.carlosrr.nebby.methods.CrawlThrottle;
 import dev.carlosrr.nebby.methods.IndexDBFromDirectory;
+import dev.carlosrr.nebby.methods.ProgressSampler;
+import dev.carlosrr.nebby.utils.CreateDBFile;
+import dev.carlosrr.nebby.utils.FilenameParser;
 import javax.swing.*;
 import javax.swing.border.CompoundBorder;
 import javax.swing.filechooser.FileSystemView;
-import javax.swing.text.AttributeSet;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.DocumentFilter;
-import javax.swing.text.PlainDocument;
 import java.awt.*;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CreateNewDBIndex extends JDialog {
 
-    private String selectedDirectoryPath;
+    private final List<String> selectedDirectoryPaths = new ArrayList<>();
     private JTextField directoryPathField;
     private JTextField splitterInputField;
     private JTextField columnsInputField;
     private JLabel errorLabel;
     private JRadioButton createTableRadio;
     private JRadioButton skipRadio;
+    private JComboBox<CrawlMode> crawlModeComboBox;
+    private JSpinner maxInFlightSpinner;
+    private JSpinner maxListingsSpinner;
+    private JCheckBox adaptiveCheckBox;
+    private JCheckBox followLinksCheckBox;
+    private JCheckBox sameFileSystemCheckBox;
+    private JCheckBox inMemoryCheckBox;
+    private JPanel indexColumnsPanel;
+    private final List<JCheckBox> indexColumnCheckBoxes = new ArrayList<>();
+    private JCheckBox substringIndexCheckBox;
+    private final CrawlThrottle throttle = CrawlThrottle.unlimited();
     private JProgressBar progressBar;
+    private JLabel progressLabel;
     private IndexDBFromDirectory indexer;
     private JButton startButton;
 
     public CreateNewDBIndex(JFrame parent) {
         super(parent, "Create New DB Index", true);
 
-        setSize(800, 300);
+        setSize(800, 500);
         setResizable(false);
         setLocationRelativeTo(parent);
 
@@ -55,17 +70,28 @@ public class CreateNewDBIndex extends JDialog {
         topPanel.setLayout(new BorderLayout(10, 0));
         topPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-        JLabel directoryLabel = new JLabel("Select directory");
+        JLabel directoryLabel = new JLabel("Select directories");
 
         directoryPathField = new JTextField();
         directoryPathField.setEditable(false);
 
-        JButton browseButton = new JButton("Browse");
+        // Several roots can be added, they are all written into the same database
+        JButton browseButton = new JButton("Add");
         browseButton.addActionListener(e -> selectDirectory());
 
+        JButton clearButton = new JButton("Clear");
+        clearButton.addActionListener(e -> {
+            selectedDirectoryPaths.clear();
+            directoryPathField.setText("");
+        });
+
+        JPanel directoryButtonsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        directoryButtonsPanel.add(browseButton);
+        directoryButtonsPanel.add(clearButton);
+
         topPanel.add(directoryLabel, BorderLayout.WEST);
         topPanel.add(directoryPathField, BorderLayout.CENTER);
-        topPanel.add(browseButton, BorderLayout.EAST);
+        topPanel.add(directoryButtonsPanel, BorderLayout.EAST);
     }
 
     private void configureMiddlePanel(JPanel middlePanel) {
@@ -77,28 +103,9 @@ public class CreateNewDBIndex extends JDialog {
 
         JLabel splitterInputLabel = new JLabel("Split filename by");
         splitterInputField = new JTextField("_");
-        splitterInputField.setPreferredSize(new Dimension(30, 25));
-
-        PlainDocument doc = (PlainDocument) splitterInputField.getDocument();
-        doc.setDocumentFilter(new DocumentFilter() {
-            @Override
-            public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
-                String currentText = fb.getDocument().getText(0, fb.getDocument().getLength());
-                String resultText = currentText.substring(0, offset) + text + currentText.substring(offset + length);
-
-                if (resultText.length() <= 1) {
-                    super.replace(fb, offset, length, text, attrs);
-                }
-            }
-
-            @Override
-            public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) throws BadLocationException {
-                String currentText = fb.getDocument().getText(0, fb.getDocument().getLength());
-                if (currentText.length() + string.length() <= 1) {
-                    super.insertString(fb, offset, string, attr);
-                }
-            }
-        });
+        splitterInputField.setPreferredSize(new Dimension(120, 25));
+        splitterInputField.setToolTipText("Split by this exact text, or start with " + FilenameParser.REGEX_PREFIX +
+                " for a pattern with one named group per column, e.g. " + FilenameParser.REGEX_PREFIX + "(?<client>[A-Z]+)-(?<job>\\d+)");
 
         splitterInputField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
             @Override
@@ -161,6 +168,7 @@ public class CreateNewDBIndex extends JDialog {
             private void checkForSpaces() {
                 String text = columnsInputField.getText();
                 errorLabel.setVisible(text.contains(" "));
+                updateIndexColumns();
                 validateStartButton();
             }
         });
@@ -189,28 +197,133 @@ public class CreateNewDBIndex extends JDialog {
 
         radioPanel.add(radioButtonsPanel);
 
+        // Create a panel for the crawl mode
+        JPanel crawlPanel = new JPanel();
+        crawlPanel.setLayout(new BoxLayout(crawlPanel, BoxLayout.X_AXIS));
+        crawlPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
+
+        JLabel crawlModeLabel = new JLabel("Crawl mode: ");
+        crawlModeComboBox = new JComboBox<>(CrawlMode.values());
+
+        JLabel maxInFlightLabel = new JLabel("  Max in-flight listings: ");
+        maxInFlightSpinner = new JSpinner(new SpinnerNumberModel(CrawlMode.DEFAULT_MAX_IN_FLIGHT, 1, 4096, 16));
+        maxInFlightSpinner.setEnabled(false);
+
+        // The in-flight limit only applies to virtual threads
+        crawlModeComboBox.addActionListener(e ->
+                maxInFlightSpinner.setEnabled(getCrawlMode() == CrawlMode.VIRTUAL_THREADS));
+
+        crawlPanel.add(crawlModeLabel);
+        crawlPanel.add(crawlModeComboBox);
+        crawlPanel.add(maxInFlightLabel);
+        crawlPanel.add(maxInFlightSpinner);
+
+        // Create a panel for the I/O limits, these apply immediately, also to a running crawl
+        JPanel throttlePanel = new JPanel();
+        throttlePanel.setLayout(new BoxLayout(throttlePanel, BoxLayout.X_AXIS));
+        throttlePanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
+
+        JLabel maxListingsLabel = new JLabel("Max listings per second (0 = no limit): ");
+        maxListingsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100_000, 50));
+        maxListingsSpinner.addChangeListener(e -> throttle.setMaxListingsPerSecond((Integer) maxListingsSpinner.getValue()));
+
+        adaptiveCheckBox = new JCheckBox("Back off when the storage slows down");
+        adaptiveCheckBox.addActionListener(e -> throttle.setAdaptive(adaptiveCheckBox.isSelected()));
+
+        throttlePanel.add(maxListingsLabel);
+        throttlePanel.add(maxListingsSpinner);
+        throttlePanel.add(Box.createHorizontalStrut(10));
+        throttlePanel.add(adaptiveCheckBox);
+
+        // Create a panel for the link policy
+        JPanel linksPanel = new JPanel();
+        linksPanel.setLayout(new BoxLayout(linksPanel, BoxLayout.X_AXIS));
+        linksPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
+
+        followLinksCheckBox = new JCheckBox("Follow symbolic links");
+        sameFileSystemCheckBox = new JCheckBox("Stay on the file systems of the selected directories");
+
+        linksPanel.add(followLinksCheckBox);
+        linksPanel.add(Box.createHorizontalStrut(10));
+        linksPanel.add(sameFileSystemCheckBox);
+
+        // The file is always built aside and saved once complete, in memory is faster but needs the room
+        inMemoryCheckBox = new JCheckBox("Build in memory");
+        inMemoryCheckBox.setToolTipText("Builds the whole database in memory before saving it, faster for trees that fit in RAM");
+        linksPanel.add(Box.createHorizontalStrut(10));
+        linksPanel.add(inMemoryCheckBox);
+
+        // Create a panel for the search indexes, one checkbox per column of the table
+        indexColumnsPanel = new JPanel();
+        indexColumnsPanel.setLayout(new BoxLayout(indexColumnsPanel, BoxLayout.X_AXIS));
+        indexColumnsPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
+        substringIndexCheckBox = new JCheckBox("Any part of a name");
+        substringIndexCheckBox.setToolTipText("Builds a larger trigram index so searches can match text in the middle of names");
+        updateIndexColumns();
+
         middlePanel.add(columnsInputLabel);
         middlePanel.add(columnsInputField);
         middlePanel.add(labelsPanel);
         middlePanel.add(radioPanel);
+        middlePanel.add(crawlPanel);
+        middlePanel.add(throttlePanel);
+        middlePanel.add(linksPanel);
+        middlePanel.add(indexColumnsPanel);
+    }
+
+    /**
+     * Rebuilds the search index checkboxes for the current column names, keeping the choices
+     * made for columns that are still there
+     */
+    private void updateIndexColumns() {
+        List<String> selected = getIndexedColumns();
+        indexColumnsPanel.removeAll();
+        indexColumnCheckBoxes.clear();
+
+        indexColumnsPanel.add(new JLabel("Index for search (built after the crawl): "));
+        for (String column : CreateDBFile.getNameColumns(getColumnsInput())) {
+            JCheckBox checkBox = new JCheckBox(column, selected.contains(column));
+            indexColumnCheckBoxes.add(checkBox);
+            indexColumnsPanel.add(checkBox);
+        }
+        indexColumnsPanel.add(Box.createHorizontalStrut(10));
+        indexColumnsPanel.add(substringIndexCheckBox);
+
+        indexColumnsPanel.revalidate();
+        indexColumnsPanel.repaint();
+    }
+
+    private List<String> getIndexedColumns() {
+        List<String> columns = new ArrayList<>();
+        for (JCheckBox checkBox : indexColumnCheckBoxes) {
+            if (checkBox.isSelected()) {
+                columns.add(checkBox.getText());
+            }
+        }
+        return columns;
     }
 
     private void selectDirectory() {
         JFileChooser fileChooser = new JFileChooser(FileSystemView.getFileSystemView().getHomeDirectory());
-        fileChooser.setDialogTitle("Select a directory");
+        fileChooser.setDialogTitle("Select directories");
         fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        fileChooser.setMultiSelectionEnabled(true);
 
         int returnValue = fileChooser.showOpenDialog(this);
 
         if (returnValue == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
-            selectedDirectoryPath = selectedFile.getAbsolutePath();
-            directoryPathField.setText(selectedDirectoryPath);
+            for (File selectedFile : fileChooser.getSelectedFiles()) {
+                String selectedPath = selectedFile.getAbsolutePath();
+                if (!selectedDirectoryPaths.contains(selectedPath)) {
+                    selectedDirectoryPaths.add(selectedPath);
+                }
+            }
+            directoryPathField.setText(String.join("; ", selectedDirectoryPaths));
         }
     }
 
-    public String getSelectedDirectoryPath() {
-        return selectedDirectoryPath;
+    public List<String> getSelectedDirectoryPaths() {
+        return selectedDirectoryPaths;
     }
 
     public String getSplitterInput() {
@@ -225,6 +338,34 @@ public class CreateNewDBIndex extends JDialog {
         return createTableRadio.isSelected();
     }
 
+    public String getIndexedColumnsInput() {
+        return String.join(",", getIndexedColumns());
+    }
+
+    public boolean isInMemorySelected() {
+        return inMemoryCheckBox.isSelected();
+    }
+
+    public boolean isSubstringIndexSelected() {
+        return substringIndexCheckBox.isSelected();
+    }
+
+    public CrawlMode getCrawlMode() {
+        return (CrawlMode) crawlModeComboBox.getSelectedItem();
+    }
+
+    public int getMaxInFlight() {
+        return (Integer) maxInFlightSpinner.getValue();
+    }
+
+    public boolean isFollowLinksSelected() {
+        return followLinksCheckBox.isSelected();
+    }
+
+    public boolean isSameFileSystemSelected() {
+        return sameFileSystemCheckBox.isSelected();
+    }
+
     private void validateStartButton() {
         if (startButton != null) {
             String splitterText = splitterInputField.getText();
@@ -238,6 +379,18 @@ public class CreateNewDBIndex extends JDialog {
         }
     }
 
+    /**
+     * Shows a progress sample below the progress bar
+     *
+     * @param snapshot The sampled counters
+     */
+    private void showProgress(ProgressSampler.Snapshot snapshot) {
+        String eta = snapshot.etaMillis() >= 0 ? ProgressSampler.formatDuration(snapshot.etaMillis()) : "estimating";
+        progressLabel.setText(String.format("%s   %,d listed   %,.0f dirs/s   %,d written   %,.0f rows/s   Queue: %d   Elapsed: %s   Remaining: %s",
+                snapshot.phase(), snapshot.listedDirs(), snapshot.dirsPerSecond(), snapshot.writtenDirs(), snapshot.writtenPerSecond(),
+                snapshot.queueDepth(), ProgressSampler.formatDuration(snapshot.elapsedMillis()), eta));
+    }
+
     private void configureBottomPanel(JPanel bottomPanel) {
         bottomPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         bottomPanel.setLayout(new BorderLayout(10, 0));
@@ -254,20 +407,39 @@ public class CreateNewDBIndex extends JDialog {
         // Create Start indexing button
         startButton = new JButton("Start indexing");
         startButton.addActionListener(e -> {
-            if (selectedDirectoryPath == null || selectedDirectoryPath.isEmpty()) {
+            if (selectedDirectoryPaths.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "Please select a directory first.", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
 
+            // A splitter pattern is checked against the columns before anything is crawled
+            try {
+                FilenameParser.create(getSplitterInput(), getColumnsInput());
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
             // Create indexer and start indexing
             indexer = new IndexDBFromDirectory(
-                selectedDirectoryPath, 
+                List.copyOf(selectedDirectoryPaths),
                 progressBar, 
                 getSplitterInput(), 
                 getColumnsInput(), 
-                isCreateSeparateTableSelected()
+                isCreateSeparateTableSelected(),
+                getIndexedColumnsInput(),
+                isSubstringIndexSelected(),
+                isInMemorySelected(),
+                getCrawlMode(),
+                getMaxInFlight(),
+                throttle,
+                isFollowLinksSelected(),
+                isSameFileSystemSelected()
             );
 
+            // Show the sampled counters under the progress bar
+            indexer.setOnProgress(this::showProgress);
+
             // Set callback to re-enable the start button when indexing is completed
             indexer.setOnCompletionCallback(() -> {
                 SwingUtilities.invokeLater(() -> startButton.setEnabled(true));
@@ -293,9 +465,12 @@ public class CreateNewDBIndex extends JDialog {
         buttonsPanel.add(startButton);
         buttonsPanel.add(cancelButton);
 
+        progressLabel = new JLabel(" ");
+
         // Add components to the bottom panel
         bottomPanel.add(progressBar, BorderLayout.CENTER);
         bottomPanel.add(buttonsPanel, BorderLayout.NORTH);
+        bottomPanel.add(progressLabel, BorderLayout.SOUTH);
 
         // Set initial validation state
         validateStartButton();
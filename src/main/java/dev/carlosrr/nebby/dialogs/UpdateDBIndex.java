@@ -0,0 +1,139 @@
+package dev.carlosrr.nebby.dialogs;
+
+import dev.carlosrr.nebby.methods.IncrementalIndexer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+
+public class UpdateDBIndex extends JDialog {
+
+    private final File dbFile;
+    private final Runnable onUpdated;
+    private JProgressBar progressBar;
+    private JLabel statusLabel;
+    private JButton startButton;
+    private IncrementalIndexer indexer;
+    private Timer statusTimer;
+
+    /**
+     * Creates a dialog that brings an existing index up to date with the file system
+     *
+     * @param parent The parent frame
+     * @param dbFile The database file to update
+     * @param onUpdated Called on the EDT after the update has been applied
+     */
+    public UpdateDBIndex(JFrame parent, File dbFile, Runnable onUpdated) {
+        super(parent, "Update DB Index", true);
+        this.dbFile = dbFile;
+        this.onUpdated = onUpdated;
+
+        setSize(600, 180);
+        setResizable(false);
+        setLocationRelativeTo(parent);
+
+        JPanel mainPanel = new JPanel(new BorderLayout());
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JLabel fileLabel = new JLabel("Only directories that changed since the last update will be listed again: " + dbFile.getName());
+        statusLabel = new JLabel(" ");
+
+        JPanel labelsPanel = new JPanel();
+        labelsPanel.setLayout(new BoxLayout(labelsPanel, BoxLayout.Y_AXIS));
+        labelsPanel.add(fileLabel);
+        labelsPanel.add(Box.createVerticalStrut(10));
+        labelsPanel.add(statusLabel);
+
+        mainPanel.add(labelsPanel, BorderLayout.NORTH);
+        mainPanel.add(createBottomPanel(), BorderLayout.SOUTH);
+
+        add(mainPanel);
+    }
+
+    private JPanel createBottomPanel() {
+        JPanel bottomPanel = new JPanel(new BorderLayout(10, 0));
+
+        progressBar = new JProgressBar();
+
+        JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+
+        startButton = new JButton("Start update");
+        startButton.addActionListener(e -> startUpdate());
+
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> {
+            if (indexer != null) {
+                indexer.cancel();
+            } else {
+                dispose();
+            }
+        });
+
+        buttonsPanel.add(startButton);
+        buttonsPanel.add(cancelButton);
+
+        bottomPanel.add(buttonsPanel, BorderLayout.NORTH);
+        bottomPanel.add(progressBar, BorderLayout.CENTER);
+        return bottomPanel;
+    }
+
+    private void startUpdate() {
+        indexer = new IncrementalIndexer(dbFile);
+        startButton.setEnabled(false);
+        progressBar.setIndeterminate(true);
+
+        // Poll the counters instead of having the indexer call into Swing
+        statusTimer = new Timer(200, e -> updateStatus());
+        statusTimer.start();
+
+        SwingWorker<Boolean, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                return indexer.update();
+            }
+
+            @Override
+            protected void done() {
+                statusTimer.stop();
+                updateStatus();
+                progressBar.setIndeterminate(false);
+
+                try {
+                    if (get()) {
+                        progressBar.setValue(100);
+                        String message = "Index updated: " + indexer.getAddedDirs() + " directories added, " +
+                            indexer.getRemovedDirs() + " removed.";
+                        if (indexer.getUnreadableDirs() > 0) {
+                            message += "\n" + indexer.getUnreadableDirs() + " directories could not be read and were left as they were.";
+                        }
+                        JOptionPane.showMessageDialog(UpdateDBIndex.this,
+                            message,
+                            "Success",
+                            JOptionPane.INFORMATION_MESSAGE);
+                        onUpdated.run();
+                    }
+                    dispose();
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(UpdateDBIndex.this,
+                        "Error updating database: " + cause.getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
+                    indexer = null;
+                    startButton.setEnabled(true);
+                }
+            }
+        };
+
+        worker.execute();
+    }
+
+    private void updateStatus() {
+        statusLabel.setText("Checked: " + indexer.getCheckedDirs() +
+                "   Listed again: " + indexer.getRelistedDirs() +
+                "   Added: " + indexer.getAddedDirs() +
+                "   Removed: " + indexer.getRemovedDirs());
+    }
+}
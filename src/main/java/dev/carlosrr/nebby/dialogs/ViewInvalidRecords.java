@@ -1,5 +1,8 @@
 package dev.carlosrr.nebby.dialogs;
 
+import dev.carlosrr.nebby.utils.LoadDBFile;
+import dev.carlosrr.nebby.utils.PathResolver;
+
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
@@ -97,23 +100,21 @@ public class ViewInvalidRecords extends JDialog {
             String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
             Connection connection = DriverManager.getConnection(url);
 
+            // Newer databases only store the directory id, the name and path come from the directory tree
+            PathResolver pathResolver = LoadDBFile.createPathResolver(connection);
+
             // Create a statement
             Statement statement = connection.createStatement();
 
             // Execute a query to get data from the "invalid" table
-            ResultSet resultSet = statement.executeQuery("SELECT filename, path FROM invalid");
-
-            // Get metadata about the result set
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
+            ResultSet resultSet = statement.executeQuery(pathResolver != null
+                    ? "SELECT d.name AS filename, i.dir_id FROM invalid i JOIN directories d ON d.id = i.dir_id"
+                    : "SELECT filename, path FROM invalid");
 
             // Create vectors for column names and data
             Vector<String> columnNames = new Vector<>();
-
-            // Add column names
-            for (int i = 1; i <= columnCount; i++) {
-                columnNames.add(metaData.getColumnName(i));
-            }
+            columnNames.add("filename");
+            columnNames.add(LoadDBFile.PATH_COLUMN);
 
             // Create a vector for the data
             Vector<Vector<Object>> data = new Vector<>();
@@ -121,12 +122,8 @@ public class ViewInvalidRecords extends JDialog {
             // Add data rows
             while (resultSet.next()) {
                 Vector<Object> row = new Vector<>();
-
-                // Add each column value
-                for (int i = 1; i <= columnCount; i++) {
-                    row.add(resultSet.getObject(i));
-                }
-
+                row.add(resultSet.getString(1));
+                row.add(pathResolver != null ? pathResolver.resolve(resultSet.getLong(2)) : resultSet.getString(2));
                 data.add(row);
             }
 
@@ -138,6 +135,9 @@ public class ViewInvalidRecords extends JDialog {
             // Close resources
             resultSet.close();
             statement.close();
+            if (pathResolver != null) {
+                pathResolver.close();
+            }
             connection.close();
 
         } catch (SQLException e) {
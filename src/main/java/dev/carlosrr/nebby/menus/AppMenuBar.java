@@ -5,6 +5,7 @@ import dev.carlosrr.nebby.panels.ContentPanel;
 import javax.swing.*;
 import javax.swing.border.MatteBorder;
 import java.awt.*;
+import java.io.File;
 
 public class AppMenuBar extends JMenuBar {
 
@@ -21,6 +22,18 @@ public class AppMenuBar extends JMenuBar {
             new dev.carlosrr.nebby.dialogs.CreateNewDBIndex(parentFrame).setVisible(true);
         });
 
+        JMenuItem updateDBIndex = new JMenuItem("Update DB Index");
+        updateDBIndex.addActionListener(e -> {
+            JFrame parentFrame = (JFrame) SwingUtilities.getWindowAncestor(this);
+            File dbFile = contentPanel.getLoadedDbFile();
+            if (dbFile == null) {
+                JOptionPane.showMessageDialog(parentFrame, "Please load a DB file first.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            new dev.carlosrr.nebby.dialogs.UpdateDBIndex(parentFrame, dbFile,
+                    () -> contentPanel.loadSpecificDatabaseFile(dbFile)).setVisible(true);
+        });
+
         JMenuItem loadDBFromFile = new JMenuItem("Load DB from file");
         loadDBFromFile.addActionListener(e -> contentPanel.loadDatabaseFile());
 
@@ -28,6 +41,7 @@ public class AppMenuBar extends JMenuBar {
         exit.addActionListener(e -> System.exit(0));
 
         menu.add(createNewDBIndex);
+        menu.add(updateDBIndex);
         menu.add(loadDBFromFile);
         menu.addSeparator();
         menu.add(exit);
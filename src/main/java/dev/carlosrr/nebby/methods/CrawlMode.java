@@ -0,0 +1,57 @@
+package dev.carlosrr.nebby.methods;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The available crawl strategies.
+ */
+public enum CrawlMode {
+
+    /**
+     * A work-stealing pool sized to the number of processors. Best for local disks.
+     */
+    FORK_JOIN("Work-stealing (local disks)"),
+
+    /**
+     * A fixed number of virtual threads taking directories from a bounded queue, newest first.
+     * Best for high-latency network file systems where most of the time is spent waiting on the
+     * server.
+     */
+    VIRTUAL_THREADS("Virtual threads (network shares)");
+
+    /**
+     * Default number of directory listings a virtual-thread crawl keeps outstanding at once
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final String displayName;
+
+    CrawlMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Creates a crawler for this mode.
+     *
+     * @param isCancelled Shared cancellation flag
+     * @param progress Progress tracker updated by the crawler
+     * @param throttle Rate limit applied to every directory listing
+     * @param filter Link policy and duplicate check, must not be shared with another index
+     * @param nextId Source of directory ids, shared by every crawler writing into the same index
+     * @param maxInFlight Number of listings running at once (only used by virtual threads)
+     * @return A new crawler
+     */
+    public DirectoryCrawler createCrawler(AtomicBoolean isCancelled, CrawlProgress progress, CrawlThrottle throttle,
+                                          DirectoryFilter filter, AtomicLong nextId, int maxInFlight) {
+        return switch (this) {
+            case FORK_JOIN -> new ForkJoinCrawler(isCancelled, progress, throttle, filter, nextId);
+            case VIRTUAL_THREADS -> new VirtualThreadCrawler(isCancelled, progress, throttle, filter, nextId, maxInFlight);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,51 @@
+package dev.carlosrr.nebby.methods;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the progress of a crawl using the frontier of discovered vs. finished directories.
+ * <p>
+ * The total number of directories is not known up front, so the percentage is an estimate
+ * that grows as directories are listed and shrinks as new subtrees are discovered.
+ * <p>
+ * The counters are only updated here. Nothing is pushed to the UI, a {@link ProgressSampler}
+ * reads them at a fixed rate instead.
+ */
+public class CrawlProgress {
+
+    private final AtomicInteger discoveredDirs = new AtomicInteger(0);
+    private final AtomicInteger finishedDirs = new AtomicInteger(0);
+
+    /**
+     * Records a directory that has been found but not listed yet
+     */
+    public void directoryDiscovered() {
+        discoveredDirs.incrementAndGet();
+    }
+
+    /**
+     * Records a directory whose listing has completed
+     */
+    public void directoryFinished() {
+        finishedDirs.incrementAndGet();
+    }
+
+    public int getDiscoveredDirs() {
+        return discoveredDirs.get();
+    }
+
+    public int getFinishedDirs() {
+        return finishedDirs.get();
+    }
+
+    /**
+     * @return The estimated percentage of the crawl that has completed (0-100)
+     */
+    public int getPercentComplete() {
+        int discovered = discoveredDirs.get();
+        if (discovered == 0) {
+            return 0;
+        }
+        return (int) ((finishedDirs.get() / (double) discovered) * 100);
+    }
+}
@@ -0,0 +1,185 @@
+package dev.carlosrr.nebby.methods;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits how hard a crawl hits the storage it is listing.
+ * <p>
+ * Every directory listing has to take a slot first. Slots are handed out at most
+ * {@link #setMaxListingsPerSecond(double) max listings per second} apart, shared by every crawler
+ * thread, so the rate holds no matter how many threads are listing. With adaptive backoff enabled
+ * the throttle also watches how long listings take: when the average latency climbs well above the
+ * baseline latency, the storage is assumed to be busy and the rate is halved, and once latency
+ * recovers the rate is raised again step by step. The baseline starts at the fastest average seen
+ * and slowly drifts towards the current average, so a few cached listings at the start of a crawl
+ * do not keep it throttled forever.
+ * <p>
+ * Both settings can be changed while a crawl is running.
+ */
+public class CrawlThrottle {
+
+    // The average latency has to exceed the baseline by this factor before backing off
+    private static final double LATENCY_THRESHOLD = 2.0;
+
+    // Weight of the newest sample in the average latency
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    // The rate is adjusted at most this often
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // How far the baseline moves towards the current average latency each interval
+    private static final double BASELINE_DRIFT = 0.02;
+
+    // Slowest rate adaptive backoff will go down to
+    private static final double MIN_ADAPTIVE_RATE = 1.0;
+
+    private volatile double maxListingsPerSecond;
+    private volatile boolean adaptive;
+
+    // Backed-off rate, 0 while running at the configured rate
+    private volatile double adaptiveRate;
+
+    private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+
+    // Latency statistics, only updated under this lock
+    private final Object statsLock = new Object();
+    private double averageLatencyNanos;
+    private double baselineLatencyNanos = Double.MAX_VALUE;
+    private long listingsSinceAdjust;
+    private long lastAdjust = System.nanoTime();
+
+    /**
+     * @param maxListingsPerSecond Maximum directory listings per second, or 0 for no limit
+     * @param adaptive Whether to slow down when listing latency goes up
+     */
+    public CrawlThrottle(double maxListingsPerSecond, boolean adaptive) {
+        this.maxListingsPerSecond = Math.max(0, maxListingsPerSecond);
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @return A throttle that never waits
+     */
+    public static CrawlThrottle unlimited() {
+        return new CrawlThrottle(0, false);
+    }
+
+    /**
+     * Waits until the next listing may start
+     *
+     * @param isCancelled Stops waiting once set
+     */
+    public void acquire(AtomicBoolean isCancelled) {
+        while (!isCancelled.get()) {
+            double rate = getEffectiveRate();
+            if (rate <= 0) {
+                return;
+            }
+
+            // Take the slot if it is due, a slot left unused for a while does not build up a burst
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            long now = System.nanoTime();
+            long slot = nextSlot.get();
+            if (now >= slot) {
+                if (nextSlot.compareAndSet(slot, now + interval)) {
+                    return;
+                }
+                continue;
+            }
+
+            // Nothing is reserved ahead of time, so rate changes apply to threads that are already waiting
+            LockSupport.parkNanos(Math.min(slot - now, Math.min(interval, TimeUnit.MILLISECONDS.toNanos(100))));
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records how long a listing took, used for adaptive backoff
+     *
+     * @param latencyNanos The duration of the listing in nanoseconds
+     */
+    public void recordListing(long latencyNanos) {
+        if (!adaptive) {
+            return;
+        }
+
+        synchronized (statsLock) {
+            averageLatencyNanos = averageLatencyNanos == 0
+                    ? latencyNanos
+                    : averageLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - averageLatencyNanos);
+            baselineLatencyNanos = Math.min(baselineLatencyNanos, averageLatencyNanos);
+            listingsSinceAdjust++;
+
+            long now = System.nanoTime();
+            long elapsed = now - lastAdjust;
+            if (elapsed < ADJUST_INTERVAL_NANOS) {
+                return;
+            }
+
+            double currentRate = getEffectiveRate();
+            double reachedRate = listingsSinceAdjust / (elapsed / 1_000_000_000.0);
+            if (averageLatencyNanos > baselineLatencyNanos * LATENCY_THRESHOLD) {
+                // Without a configured limit, start from the rate that was actually reached
+                if (currentRate <= 0) {
+                    currentRate = reachedRate;
+                }
+                adaptiveRate = Math.max(MIN_ADAPTIVE_RATE, currentRate / 2);
+            } else if (adaptiveRate > 0) {
+                // Recover by a tenth of the configured rate (or of the backed-off rate) each interval
+                double step = Math.max(maxListingsPerSecond, adaptiveRate) / 10;
+                double recovered = adaptiveRate + step;
+                if (maxListingsPerSecond > 0) {
+                    adaptiveRate = recovered >= maxListingsPerSecond ? 0 : recovered;
+                } else {
+                    // Without a configured limit, stop limiting once the crawl no longer reaches the backed-off rate
+                    adaptiveRate = reachedRate < recovered / 2 ? 0 : recovered;
+                }
+            }
+
+            baselineLatencyNanos += BASELINE_DRIFT * (averageLatencyNanos - baselineLatencyNanos);
+            listingsSinceAdjust = 0;
+            lastAdjust = now;
+        }
+    }
+
+    /**
+     * @return The rate listings are currently limited to, or 0 if they are not limited
+     */
+    public double getEffectiveRate() {
+        double backedOff = adaptiveRate;
+        if (backedOff > 0) {
+            return maxListingsPerSecond > 0 ? Math.min(backedOff, maxListingsPerSecond) : backedOff;
+        }
+        return maxListingsPerSecond;
+    }
+
+    /**
+     * @param maxListingsPerSecond Maximum directory listings per second, or 0 for no limit
+     */
+    public void setMaxListingsPerSecond(double maxListingsPerSecond) {
+        this.maxListingsPerSecond = Math.max(0, maxListingsPerSecond);
+    }
+
+    public double getMaxListingsPerSecond() {
+        return maxListingsPerSecond;
+    }
+
+    /**
+     * @param adaptive Whether to slow down when listing latency goes up
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        if (!adaptive) {
+            adaptiveRate = 0;
+        }
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+}
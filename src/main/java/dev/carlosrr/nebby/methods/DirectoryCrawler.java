@@ -0,0 +1,26 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+import java.nio.file.Path;
+
+/**
+ * A strategy for crawling every directory below a root directory.
+ */
+public interface DirectoryCrawler {
+
+    /**
+     * Crawls every directory below the root and waits for the crawl to finish.
+     * Directories are handed to the sink in chunks as they are found.
+     *
+     * @param root The directory to start from (not included in the results)
+     * @param rootInfo The directory information of the root, used as the parent of its subdirectories
+     * @param sink Receives every subdirectory found, or whatever was found before cancellation
+     */
+    void crawl(Path root, DirectoryInfo rootInfo, DirectorySink sink);
+
+    /**
+     * Stops the crawl. Listings that have not started yet are discarded.
+     */
+    void cancel();
+}
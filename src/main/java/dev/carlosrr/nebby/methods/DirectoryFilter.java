@@ -0,0 +1,169 @@
+package dev.carlosrr.nebby.methods;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which subdirectories a crawl descends into.
+ * <p>
+ * Symbolic links are only followed when asked to. Every directory that is accepted is recorded by
+ * its {@link BasicFileAttributes#fileKey() file key} (device and inode on Unix) in a set shared by
+ * all crawler threads, so a directory reached a second time through a symlink, a bind mount or a
+ * hard link is skipped together with its subtree. This also stops symlink cycles. The first path
+ * that reaches a directory is the one that is indexed. File systems that do not provide file keys
+ * are crawled without this check.
+ * <p>
+ * Optionally the crawl can be kept on the file systems of the roots, skipping anything mounted
+ * below them. This costs one extra stat per directory.
+ * <p>
+ * A filter keeps state, so every index run needs its own instance. When several roots are written
+ * into the same index they share one filter, so a directory below more than one root is only
+ * indexed once.
+ */
+public class DirectoryFilter {
+
+    private final boolean followLinks;
+    private final boolean sameFileSystem;
+    private final Set<Object> visitedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger skippedDirs = new AtomicInteger(0);
+
+    private final Set<Object> rootDevices = ConcurrentHashMap.newKeySet();
+
+    // Cleared on platforms without the "unix" attribute view, FileStore is compared instead
+    private volatile boolean unixDeviceSupported = true;
+
+    /**
+     * @param followLinks Whether to descend into symbolic links that point to directories
+     * @param sameFileSystem Whether to skip directories that are not on the file system of a root
+     */
+    public DirectoryFilter(boolean followLinks, boolean sameFileSystem) {
+        this.followLinks = followLinks;
+        this.sameFileSystem = sameFileSystem;
+    }
+
+    /**
+     * Resolves a root given by the user to the directory it names. Links below the roots are only
+     * followed when enabled, but a root that is a link to a directory is always crawled as that
+     * directory, otherwise it would be listed as a file and nothing would be indexed.
+     *
+     * @param root The root directory, possibly a symbolic link
+     * @return The real path of the root, or its absolute path if it cannot be resolved
+     */
+    public static Path resolveRoot(Path root) {
+        try {
+            return root.toRealPath();
+        } catch (IOException e) {
+            // Reported when the root is listed
+            return root.toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Records a root of a crawl. Must be called for every root before the crawl starts.
+     *
+     * @param root The root directory
+     */
+    public void start(Path root) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class, getLinkOptions());
+            if (attributes.fileKey() != null) {
+                visitedKeys.add(attributes.fileKey());
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading attributes of " + root + ": " + e.getMessage());
+        }
+
+        if (sameFileSystem) {
+            Object rootDevice = getDevice(root);
+            if (rootDevice != null) {
+                rootDevices.add(rootDevice);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a subdirectory found by a listing should be crawled
+     *
+     * @param directory The subdirectory
+     * @param attributes The attributes read while listing its parent
+     * @return true if the subdirectory has not been seen before and passes the file system check
+     */
+    public boolean accept(Path directory, BasicFileAttributes attributes) {
+        if (sameFileSystem && !rootDevices.isEmpty()) {
+            Object device = getDevice(directory);
+            if (device == null || !rootDevices.contains(device)) {
+                skippedDirs.incrementAndGet();
+                return false;
+            }
+        }
+
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null && !visitedKeys.add(fileKey)) {
+            // Already reached through another path
+            skippedDirs.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Identifies the file system a directory is on
+     *
+     * @return The device id or file store, or null if it cannot be read
+     */
+    private Object getDevice(Path directory) {
+        if (unixDeviceSupported) {
+            try {
+                return Files.getAttribute(directory, "unix:dev", getLinkOptions());
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                unixDeviceSupported = false;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        try {
+            return Files.getFileStore(directory);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The options for reading attributes under this link policy
+     */
+    public LinkOption[] getLinkOptions() {
+        return followLinks ? new LinkOption[0] : new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+    }
+
+    /**
+     * @return The options for walking a directory under this link policy
+     */
+    public Set<FileVisitOption> getVisitOptions() {
+        return followLinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+    }
+
+    public boolean isFollowLinks() {
+        return followLinks;
+    }
+
+    public boolean isSameFileSystem() {
+        return sameFileSystem;
+    }
+
+    /**
+     * @return The number of directories skipped as duplicates or as being on another file system
+     */
+    public int getSkippedDirs() {
+        return skippedDirs.get();
+    }
+}
@@ -0,0 +1,134 @@
+package dev.carlosrr.nebby.methods;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lists the immediate subdirectories of a directory using NIO.
+ * <p>
+ * Entries are streamed one at a time from the directory read instead of being loaded into a
+ * {@code File[]} array. The file type comes from the {@link BasicFileAttributes} that the
+ * file tree walker already has for each entry, so there is no extra {@code isDirectory()} stat
+ * per child. On Windows (NTFS and SMB shares) these attributes come straight from the
+ * directory enumeration itself.
+ * <p>
+ * Every listing first takes a slot from the {@link CrawlThrottle} and reports how long it took,
+ * so a throttled crawl is limited at the one place that actually touches the storage. Each
+ * subdirectory has to pass the {@link DirectoryFilter}, which applies the link policy and skips
+ * directories that were already reached through another path.
+ */
+public class DirectoryLister {
+
+    /**
+     * Callback for every subdirectory found while listing a directory.
+     */
+    @FunctionalInterface
+    public interface SubdirectoryVisitor {
+        void visit(Path directory, BasicFileAttributes attributes);
+    }
+
+    private final AtomicBoolean isCancelled;
+    private final CrawlThrottle throttle;
+    private final DirectoryFilter filter;
+
+    public DirectoryLister(AtomicBoolean isCancelled, CrawlThrottle throttle, DirectoryFilter filter) {
+        this.isCancelled = isCancelled;
+        this.throttle = throttle;
+        this.filter = filter;
+    }
+
+    /**
+     * Lists the immediate subdirectories of a directory. A directory that cannot be read is
+     * treated as empty.
+     *
+     * @param directory The directory to list
+     * @param visitor Called for each subdirectory that passes the filter, in the order the file system returns them
+     * @return The number of entries (of any type) read from the directory
+     */
+    public int listSubdirectories(Path directory, SubdirectoryVisitor visitor) {
+        int[] entryCount = new int[1];
+        try {
+            list(directory, visitor, entryCount);
+        } catch (IOException e) {
+            // Unreadable directories are skipped, like listFiles() returning null
+            System.err.println("Error listing directory " + directory + ": " + e.getMessage());
+        }
+        return entryCount[0];
+    }
+
+    /**
+     * Lists the immediate subdirectories of a directory, or fails if it cannot be read to the end.
+     * Used when what is missing from the listing is taken to be deleted.
+     *
+     * @param directory The directory to list
+     * @param visitor Called for each subdirectory that passes the filter, in the order the file system returns them.
+     *                On failure, it may already have been called for some of them.
+     * @return The number of entries (of any type) read from the directory
+     * @throws IOException if the directory cannot be opened or an error occurs while reading it
+     */
+    public int listSubdirectoriesCompletely(Path directory, SubdirectoryVisitor visitor) throws IOException {
+        int[] entryCount = new int[1];
+        list(directory, visitor, entryCount);
+        return entryCount[0];
+    }
+
+    private void list(Path directory, SubdirectoryVisitor visitor, int[] entryCount) throws IOException {
+        // When links are followed, they are visited after the real subdirectories so that a
+        // directory reachable both ways is recorded under its real path
+        Map<Path, BasicFileAttributes> links = new LinkedHashMap<>();
+
+        throttle.acquire(isCancelled);
+        if (isCancelled.get()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+
+        try {
+            // A max depth of 1 makes the walker report every child through visitFile(),
+            // together with the attributes it read while enumerating the directory
+            Files.walkFileTree(directory, filter.getVisitOptions(), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isCancelled.get()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+
+                    entryCount[0]++;
+                    if (!attrs.isDirectory()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (filter.isFollowLinks() && Files.isSymbolicLink(file)) {
+                        links.put(file, attrs);
+                    } else if (filter.accept(file, attrs)) {
+                        visitor.visit(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    // An entry whose attributes cannot be read is skipped, but not the directory itself
+                    if (file.equals(directory)) {
+                        throw exc;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            throttle.recordListing(System.nanoTime() - startTime);
+        }
+
+        for (Map.Entry<Path, BasicFileAttributes> link : links.entrySet()) {
+            if (filter.accept(link.getKey(), link.getValue())) {
+                visitor.visit(link.getKey(), link.getValue());
+            }
+        }
+    }
+}
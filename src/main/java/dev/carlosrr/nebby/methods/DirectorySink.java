@@ -0,0 +1,20 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+import java.util.List;
+
+/**
+ * Receives the directories found by a {@link DirectoryCrawler} in chunks while the crawl is running.
+ */
+@FunctionalInterface
+public interface DirectorySink {
+
+    /**
+     * Accepts a chunk of directories. May block to apply back-pressure to the crawler.
+     * The crawler does not touch the list after handing it over.
+     *
+     * @param chunk The directories found
+     */
+    void accept(List<DirectoryInfo> chunk);
+}
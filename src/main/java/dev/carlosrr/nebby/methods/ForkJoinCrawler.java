@@ -0,0 +1,143 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crawls a directory tree on a work-stealing {@link ForkJoinPool}.
+ * <p>
+ * Every directory is a {@link RecursiveAction} that lists its children and then forks and joins
+ * one task per subdirectory, so {@link #crawl(Path, DirectoryInfo, DirectorySink)} only returns once the whole
+ * tree has been listed. Results are collected in per-worker buffers that no other thread writes
+ * to. A buffer is handed to the sink whenever it fills up, and whatever is left in the buffers is
+ * handed over once the root task has completed.
+ */
+public class ForkJoinCrawler implements DirectoryCrawler {
+
+    // Number of directories a worker collects before handing them to the sink
+    private static final int CHUNK_SIZE = 1024;
+
+    private final DirectoryLister directoryLister;
+    private final AtomicBoolean isCancelled;
+    private final CrawlProgress progress;
+    private final ForkJoinPool pool;
+    private final AtomicLong nextId;
+    private DirectorySink sink;
+
+    // Every buffer handed out by workerBuffer, kept so they can be flushed at the end
+    private final Queue<List<DirectoryInfo>> allBuffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<List<DirectoryInfo>> workerBuffer = ThreadLocal.withInitial(() -> {
+        List<DirectoryInfo> buffer = new ArrayList<>();
+        allBuffers.add(buffer);
+        return buffer;
+    });
+
+    public ForkJoinCrawler(AtomicBoolean isCancelled, CrawlProgress progress, CrawlThrottle throttle, DirectoryFilter filter,
+                           AtomicLong nextId) {
+        this(isCancelled, progress, throttle, filter, nextId, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ForkJoinCrawler(AtomicBoolean isCancelled, CrawlProgress progress, CrawlThrottle throttle, DirectoryFilter filter,
+                           AtomicLong nextId, int parallelism) {
+        this.directoryLister = new DirectoryLister(isCancelled, throttle, filter);
+        this.isCancelled = isCancelled;
+        this.progress = progress;
+        this.nextId = nextId;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @Override
+    public void crawl(Path root, DirectoryInfo rootInfo, DirectorySink sink) {
+        this.sink = sink;
+        progress.directoryDiscovered();
+
+        try {
+            pool.invoke(new DirectoryTask(root, rootInfo));
+        } catch (CancellationException e) {
+            // The pool was shut down by cancel(), keep whatever was collected
+        } finally {
+            pool.shutdown();
+            // After a cancel, invoke() returns while workers may still be inside a task
+            awaitWorkers();
+        }
+
+        // Flush whatever is left in the per-worker buffers, no worker touches them anymore
+        for (List<DirectoryInfo> buffer : allBuffers) {
+            if (!buffer.isEmpty()) {
+                sink.accept(new ArrayList<>(buffer));
+                buffer.clear();
+            }
+        }
+    }
+
+    @Override
+    public void cancel() {
+        isCancelled.set(true);
+        pool.shutdownNow();
+    }
+
+    /**
+     * Waits until every worker has left its task
+     */
+    private void awaitWorkers() {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // A listing or a full sink is still holding a worker
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private final Path directory;
+        private final DirectoryInfo info;
+
+        DirectoryTask(Path directory, DirectoryInfo info) {
+            this.directory = directory;
+            this.info = info;
+        }
+
+        @Override
+        protected void compute() {
+            if (isCancelled.get()) {
+                return;
+            }
+
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            int entryCount = directoryLister.listSubdirectories(directory, (subdirectory, attributes) -> {
+                DirectoryInfo subdirectoryInfo = DirectoryInfo.fromAttributes(nextId.getAndIncrement(), info, subdirectory, attributes);
+                progress.directoryDiscovered();
+                subtasks.add(new DirectoryTask(subdirectory, subdirectoryInfo));
+            });
+
+            // A directory is handed over once it has been listed, so its child count is known
+            if (!info.isRoot()) {
+                info.setChildCount(entryCount);
+                List<DirectoryInfo> buffer = workerBuffer.get();
+                buffer.add(info);
+                if (buffer.size() >= CHUNK_SIZE) {
+                    sink.accept(new ArrayList<>(buffer));
+                    buffer.clear();
+                }
+            }
+
+            progress.directoryFinished();
+
+            // Fork all subdirectories and wait for them, idle workers steal from this queue
+            invokeAll(subtasks);
+        }
+    }
+}
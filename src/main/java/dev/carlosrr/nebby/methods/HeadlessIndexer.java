@@ -0,0 +1,315 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.utils.FilenameParser;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Creates an index from the command line, for scheduled runs on machines without a display.
+ * <p>
+ * Runs the same crawler and writer pipeline as the "Create New DB Index" dialog but never touches
+ * Swing or AWT, so it starts quickly and works with {@code java.awt.headless=true}. Progress and
+ * throughput are printed to standard error, the summary to standard output.
+ */
+public class HeadlessIndexer {
+
+    /**
+     * The index was created
+     */
+    public static final int EXIT_OK = 0;
+
+    /**
+     * The index could not be created
+     */
+    public static final int EXIT_FAILED = 1;
+
+    /**
+     * The arguments were invalid
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * The crawl finished but found no directories below the root
+     */
+    public static final int EXIT_EMPTY = 3;
+
+    /**
+     * The run was interrupted, for example with Ctrl+C
+     */
+    public static final int EXIT_CANCELLED = 130;
+
+    // How often a progress line is printed
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+
+    private static final String USAGE = """
+            Usage: nebby --index <root> [--index <root> ...] --output <file.db> [options]
+
+            Every root is written into the same file. Roots on different disks are crawled in parallel.
+
+            Options:
+              --splitter <text>       String to split directory names by, or regex:<pattern>
+                                      with one named group per column
+              --columns <a,b,c>       Comma-separated column names for the split parts
+              --indexed-columns <a,b> Columns to index for fast searches
+              --substring-index       Build a trigram index for searching any part of a name
+              --invalid <table|skip>  Keep names that do not split into every column in a separate
+                                      table, or leave them out (default: table)
+              --mode <fork-join|virtual-threads>
+                                      Crawl strategy (default: fork-join)
+              --max-in-flight <n>     Outstanding listings for virtual-threads mode (default: %d)
+              --max-listings <n>      Directory listings per second, 0 for no limit (default: 0)
+              --adaptive              Slow down when listing latency goes up
+              --follow-links          Descend into symbolic links to directories
+              --same-file-system      Do not descend into other file systems mounted below the roots
+              --in-memory             Build the database in memory instead of in a scratch file
+                                      next to the output
+              --force                 Replace the output file if it exists
+              --help                  Show this message
+            """.formatted(CrawlMode.DEFAULT_MAX_IN_FLIGHT);
+
+    private final List<String> rootInputs = new ArrayList<>();
+    private String outputInput;
+    private String splitterInput = "";
+    private String columnsInput = "";
+    private String indexedColumnsInput = "";
+    private boolean substringIndex;
+    private boolean createSeparateTable = true;
+    private CrawlMode crawlMode = CrawlMode.FORK_JOIN;
+    private int maxInFlight = CrawlMode.DEFAULT_MAX_IN_FLIGHT;
+    private double maxListingsPerSecond;
+    private boolean adaptiveThrottle;
+    private boolean followLinks;
+    private boolean sameFileSystem;
+    private boolean buildInMemory;
+    private boolean replaceOutput;
+
+    /**
+     * Checks whether the application was started in command-line mode
+     *
+     * @param args The program arguments
+     * @return true if the arguments ask for a headless run
+     */
+    public static boolean isCommandLine(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--index") || arg.equals("--help")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the arguments and creates the index
+     *
+     * @param args The program arguments
+     * @return The exit code
+     */
+    public static int run(String[] args) {
+        HeadlessIndexer indexer = new HeadlessIndexer();
+        try {
+            if (!indexer.parseArguments(args)) {
+                System.out.print(USAGE);
+                return EXIT_OK;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("nebby: " + e.getMessage());
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        return indexer.index();
+    }
+
+    /**
+     * @return false if only the usage should be printed
+     */
+    private boolean parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--help" -> {
+                    return false;
+                }
+                case "--index" -> rootInputs.add(requireValue(args, ++i, "--index"));
+                case "--output" -> outputInput = requireValue(args, ++i, "--output");
+                case "--splitter" -> splitterInput = requireValue(args, ++i, "--splitter");
+                case "--columns" -> columnsInput = requireValue(args, ++i, "--columns");
+                case "--indexed-columns" -> indexedColumnsInput = requireValue(args, ++i, "--indexed-columns");
+                case "--substring-index" -> substringIndex = true;
+                case "--invalid" -> {
+                    String policy = requireValue(args, ++i, "--invalid");
+                    switch (policy) {
+                        case "table" -> createSeparateTable = true;
+                        case "skip" -> createSeparateTable = false;
+                        default -> throw new IllegalArgumentException("Unknown invalid-name policy: " + policy);
+                    }
+                }
+                case "--mode" -> {
+                    String mode = requireValue(args, ++i, "--mode");
+                    switch (mode) {
+                        case "fork-join" -> crawlMode = CrawlMode.FORK_JOIN;
+                        case "virtual-threads" -> crawlMode = CrawlMode.VIRTUAL_THREADS;
+                        default -> throw new IllegalArgumentException("Unknown crawl mode: " + mode);
+                    }
+                }
+                case "--max-in-flight" -> {
+                    String value = requireValue(args, ++i, "--max-in-flight");
+                    try {
+                        maxInFlight = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("--max-in-flight must be a number: " + value);
+                    }
+                    if (maxInFlight < 1) {
+                        throw new IllegalArgumentException("--max-in-flight must be at least 1");
+                    }
+                }
+                case "--max-listings" -> {
+                    String value = requireValue(args, ++i, "--max-listings");
+                    try {
+                        maxListingsPerSecond = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("--max-listings must be a number: " + value);
+                    }
+                    if (maxListingsPerSecond < 0) {
+                        throw new IllegalArgumentException("--max-listings cannot be negative");
+                    }
+                }
+                case "--adaptive" -> adaptiveThrottle = true;
+                case "--follow-links" -> followLinks = true;
+                case "--same-file-system" -> sameFileSystem = true;
+                case "--in-memory" -> buildInMemory = true;
+                case "--force" -> replaceOutput = true;
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        if (rootInputs.isEmpty()) {
+            throw new IllegalArgumentException("--index is required");
+        }
+        if (outputInput == null) {
+            throw new IllegalArgumentException("--output is required");
+        }
+
+        // Fails for a splitter pattern that does not compile or misses a column
+        FilenameParser.create(splitterInput, columnsInput);
+        return true;
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private int index() {
+        List<Path> roots = new ArrayList<>();
+        for (String rootInput : rootInputs) {
+            Path root = Paths.get(rootInput).toAbsolutePath().normalize();
+            if (!Files.isDirectory(root)) {
+                System.err.println("nebby: Not a directory: " + root);
+                return EXIT_USAGE;
+            }
+            roots.add(root);
+        }
+
+        // Same naming rule as the save dialog
+        String outputPath = new File(outputInput).getAbsolutePath();
+        if (!outputPath.toLowerCase().endsWith(".db")) {
+            outputPath += ".db";
+        }
+        File dbFile = new File(outputPath);
+        if (dbFile.exists() && !replaceOutput) {
+            System.err.println("nebby: " + dbFile + " already exists, use --force to replace it");
+            return EXIT_USAGE;
+        }
+
+        AtomicBoolean isCancelled = new AtomicBoolean(false);
+        CrawlProgress progress = new CrawlProgress();
+        DirectoryFilter filter = new DirectoryFilter(followLinks, sameFileSystem);
+        MultiRootCrawler crawler = new MultiRootCrawler(crawlMode, isCancelled, progress,
+                new CrawlThrottle(maxListingsPerSecond, adaptiveThrottle), filter, maxInFlight);
+        IndexPipeline pipeline = new IndexPipeline(crawler, filter, isCancelled, dbFile, splitterInput, columnsInput, createSeparateTable,
+                indexedColumnsInput, substringIndex, buildInMemory);
+
+        // Ctrl+C cancels the run and waits for the scratch files to be removed
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            pipeline.cancel();
+            try {
+                finished.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "nebby-cli-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        long startTime = System.nanoTime();
+        ScheduledExecutorService progressPrinter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nebby-cli-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progressPrinter.scheduleAtFixedRate(() -> printStats(System.err, "Progress (" + pipeline.getPhase() + ")", pipeline.getWrittenDirs(),
+                        progress.getFinishedDirs(), startTime),
+                PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        System.err.println("Indexing " + String.join(", ", roots.stream().map(Path::toString).toList())
+                + " into " + dbFile + " (" + crawlMode + ")");
+
+        try {
+            long writtenDirs = pipeline.run(roots);
+            progressPrinter.shutdownNow();
+
+            // Errors were thrown by run, a crawl stopped by a failed write is not a cancel
+            if (pipeline.isCancelled()) {
+                System.err.println("Indexing cancelled");
+                return EXIT_CANCELLED;
+            }
+
+            printStats(System.out, "Indexed", writtenDirs, progress.getFinishedDirs(), startTime);
+            if (filter.getSkippedDirs() > 0) {
+                System.out.println("Skipped " + filter.getSkippedDirs() + " directories reached twice or on another file system");
+            }
+            if (writtenDirs == 0) {
+                System.err.println("No directories found to index.");
+                return EXIT_EMPTY;
+            }
+            System.out.println("Database created at " + dbFile);
+            return EXIT_OK;
+        } catch (SQLException e) {
+            System.err.println("nebby: Error creating database: " + e.getMessage());
+            e.printStackTrace();
+            return EXIT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_CANCELLED;
+        } finally {
+            progressPrinter.shutdownNow();
+            finished.countDown();
+            if (!pipeline.isCancelled()) {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+        }
+    }
+
+    /**
+     * Prints the number of directories written and listed with their rate since the start
+     */
+    private static void printStats(PrintStream out, String label, long writtenDirs, long listedDirs, long startTime) {
+        double seconds = Math.max((System.nanoTime() - startTime) / 1_000_000_000.0, 0.001);
+        out.println(String.format(Locale.ROOT, "%s: %d directories written, %d listed in %.1f s (%.0f dirs/s)",
+                label, writtenDirs, listedDirs, seconds, writtenDirs / seconds));
+    }
+}
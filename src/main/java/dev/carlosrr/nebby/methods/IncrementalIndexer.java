@@ -0,0 +1,272 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+import dev.carlosrr.nebby.utils.DBWriter;
+import dev.carlosrr.nebby.utils.IndexMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings an existing index database up to date without crawling the whole tree again.
+ * <p>
+ * A directory's last-modified time changes whenever an entry is added to, removed from or renamed
+ * in it. Directories whose stored time still matches are not listed again; their children are
+ * taken from the "directories" table and only checked with a single stat each. Directories whose
+ * time changed are listed and compared with what is stored: new subdirectories are crawled and
+ * inserted, missing ones are deleted together with everything below them.
+ * <p>
+ * Every root of the index is checked. A root that cannot be read, for example a volume that is not
+ * mounted, is left as it is instead of being treated as deleted. The same goes for a changed
+ * directory that cannot be listed: its stored children and time are kept, so it is listed again
+ * by the next update.
+ */
+public class IncrementalIndexer {
+
+    // Queued inserts are flushed every this many directories to keep the JDBC batch small
+    private static final int BATCH_SIZE = 10_000;
+
+    private final File dbFile;
+    private final AtomicBoolean isCancelled;
+    private DirectoryLister directoryLister;
+    private DirectoryFilter filter;
+
+    private final AtomicInteger checkedDirs = new AtomicInteger(0);
+    private final AtomicInteger relistedDirs = new AtomicInteger(0);
+    private final AtomicInteger addedDirs = new AtomicInteger(0);
+    private final AtomicInteger removedDirs = new AtomicInteger(0);
+    private final AtomicInteger unreadableDirs = new AtomicInteger(0);
+
+    private long nextId;
+    private int queuedInserts;
+
+    public IncrementalIndexer(File dbFile) {
+        this.dbFile = dbFile;
+        this.isCancelled = new AtomicBoolean(false);
+    }
+
+    /**
+     * A directory whose stored state still has to be compared with the file system
+     */
+    private record PendingDirectory(long id, long rootId, Path path, long storedModified, BasicFileAttributes attributes) {
+    }
+
+    /**
+     * A child directory as recorded in the directories table
+     */
+    private record StoredDirectory(long id, long lastModified) {
+    }
+
+    /**
+     * Updates the index. All changes are applied in one transaction which is rolled back on error
+     * or cancellation.
+     *
+     * @return true if the update was applied, false if it was cancelled
+     * @throws SQLException if the database cannot be read or written, or was not created with update support
+     * @throws IOException if none of the root directories can be read
+     */
+    public boolean update() throws SQLException, IOException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath())) {
+            IndexMetadata metadata = IndexMetadata.read(connection);
+            if (!IndexMetadata.supportsUpdates(metadata)) {
+                throw new SQLException("This database was created by an older version of Nebby and cannot be updated. " +
+                        "Please create a new index instead.");
+            }
+
+            // New directories are crawled with the same link policy as the original crawl
+            Map<Long, Path> roots = IndexMetadata.readRoots(connection);
+            filter = new DirectoryFilter(metadata.isFollowLinks(), metadata.isSameFileSystem());
+            for (Path root : roots.values()) {
+                filter.start(root);
+            }
+            directoryLister = new DirectoryLister(isCancelled, CrawlThrottle.unlimited(), filter);
+
+            connection.setAutoCommit(false);
+
+            try (DBWriter writer = new DBWriter(connection, metadata.getSplitterInput(), metadata.getColumnsInput(),
+                         metadata.isCreateSeparateTable());
+                 PreparedStatement childrenStatement = connection.prepareStatement(
+                         "SELECT id, name, mtime FROM directories WHERE parent_id = ?")) {
+
+                nextId = queryLong(connection, "SELECT COALESCE(MAX(id), 0) + 1 FROM directories");
+
+                Deque<PendingDirectory> pending = new ArrayDeque<>();
+                IOException rootError = null;
+                for (Map.Entry<Long, Path> root : roots.entrySet()) {
+                    try {
+                        BasicFileAttributes rootAttributes = Files.readAttributes(root.getValue(), BasicFileAttributes.class);
+                        long rootModified = queryLong(connection, "SELECT mtime FROM directories WHERE id = " + root.getKey());
+                        pending.push(new PendingDirectory(root.getKey(), root.getKey(), root.getValue(), rootModified, rootAttributes));
+                    } catch (IOException e) {
+                        // Keep what is stored for a volume that is not available right now
+                        System.err.println("Skipping root " + root.getValue() + ": " + e.getMessage());
+                        rootError = e;
+                    }
+                }
+                if (pending.isEmpty() && rootError != null) {
+                    throw rootError;
+                }
+
+                while (!pending.isEmpty()) {
+                    if (isCancelled.get()) {
+                        connection.rollback();
+                        return false;
+                    }
+                    checkDirectory(pending.pop(), pending, writer, childrenStatement);
+                }
+
+                writer.executeBatch();
+                connection.commit();
+                return true;
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void checkDirectory(PendingDirectory directory, Deque<PendingDirectory> pending, DBWriter writer,
+                                PreparedStatement childrenStatement) throws SQLException {
+        checkedDirs.incrementAndGet();
+
+        BasicFileAttributes attributes = directory.attributes();
+        if (attributes == null) {
+            try {
+                attributes = Files.readAttributes(directory.path(), BasicFileAttributes.class, filter.getLinkOptions());
+            } catch (IOException e) {
+                attributes = null;
+            }
+
+            // Removed since its parent was last listed
+            if (attributes == null || !attributes.isDirectory()) {
+                removedDirs.addAndGet(writer.deleteSubtree(directory.id()));
+                return;
+            }
+        }
+
+        // Load the children recorded for this directory
+        Map<String, StoredDirectory> storedChildren = new HashMap<>();
+        childrenStatement.setLong(1, directory.id());
+        try (ResultSet resultSet = childrenStatement.executeQuery()) {
+            while (resultSet.next()) {
+                storedChildren.put(resultSet.getString(2), new StoredDirectory(resultSet.getLong(1), resultSet.getLong(3)));
+            }
+        }
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (lastModified == directory.storedModified()) {
+            // Unchanged, so the stored children are still accurate but may have changed further down
+            for (Map.Entry<String, StoredDirectory> child : storedChildren.entrySet()) {
+                StoredDirectory stored = child.getValue();
+                pending.push(new PendingDirectory(stored.id(), directory.rootId(), directory.path().resolve(child.getKey()),
+                        stored.lastModified(), null));
+            }
+            return;
+        }
+
+        // Changed, list it again and compare with what is stored
+        relistedDirs.incrementAndGet();
+        DirectoryInfo parentInfo = DirectoryInfo.forStoredDirectory(directory.id(), directory.rootId(), directory.path());
+        Deque<DirectoryInfo> added = new ArrayDeque<>();
+        int entryCount;
+        try {
+            entryCount = directoryLister.listSubdirectoriesCompletely(directory.path(), (subdirectory, childAttributes) -> {
+                StoredDirectory stored = storedChildren.remove(subdirectory.getFileName().toString());
+                if (stored == null) {
+                    added.push(DirectoryInfo.fromAttributes(nextId++, parentInfo, subdirectory, childAttributes));
+                } else {
+                    pending.push(new PendingDirectory(stored.id(), directory.rootId(), subdirectory, stored.lastModified(), childAttributes));
+                }
+            });
+        } catch (IOException e) {
+            // A listing that failed says nothing about what was deleted. Keep the stored children
+            // and time so the next update tries again, the children already seen are still checked.
+            System.err.println("Cannot list " + directory.path() + ", keeping what is stored: " + e);
+            unreadableDirs.incrementAndGet();
+            return;
+        }
+
+        // Whatever was not listed again has been deleted or renamed
+        for (StoredDirectory removed : storedChildren.values()) {
+            removedDirs.addAndGet(writer.deleteSubtree(removed.id()));
+        }
+
+        for (DirectoryInfo info : added) {
+            insertSubtree(info, writer);
+        }
+
+        writer.updateDirectory(directory.id(), lastModified, entryCount);
+    }
+
+    /**
+     * Inserts a new directory and crawls everything below it
+     */
+    private void insertSubtree(DirectoryInfo subtreeRoot, DBWriter writer) throws SQLException {
+        Deque<DirectoryInfo> pending = new ArrayDeque<>();
+        pending.push(subtreeRoot);
+
+        while (!pending.isEmpty() && !isCancelled.get()) {
+            DirectoryInfo info = pending.pop();
+
+            // List it first so the child count is known when it is written
+            info.setChildCount(directoryLister.listSubdirectories(Paths.get(info.getFullPath()), (subdirectory, attributes) ->
+                    pending.push(DirectoryInfo.fromAttributes(nextId++, info, subdirectory, attributes))));
+
+            writer.add(info);
+            addedDirs.incrementAndGet();
+
+            if (++queuedInserts >= BATCH_SIZE) {
+                writer.executeBatch();
+                queuedInserts = 0;
+            }
+        }
+    }
+
+    private static long queryLong(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Stops the update. Nothing is written to the database.
+     */
+    public void cancel() {
+        isCancelled.set(true);
+    }
+
+    public int getCheckedDirs() {
+        return checkedDirs.get();
+    }
+
+    public int getRelistedDirs() {
+        return relistedDirs.get();
+    }
+
+    public int getAddedDirs() {
+        return addedDirs.get();
+    }
+
+    public int getRemovedDirs() {
+        return removedDirs.get();
+    }
+
+    /**
+     * @return The number of changed directories that could not be listed and were kept as stored
+     */
+    public int getUnreadableDirs() {
+        return unreadableDirs.get();
+    }
+}
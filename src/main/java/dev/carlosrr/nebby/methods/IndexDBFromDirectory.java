@@ -4,95 +4,163 @@ import dev.carlosrr.nebby.utils.CreateDBFile;
 import javax.swing.*;
 import java.awt.Component;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class IndexDBFromDirectory {
 
-    private final String directoryPath;
+    private final List<String> directoryPaths;
     private final JProgressBar progressBar;
     private final AtomicBoolean isCancelled;
-    private ExecutorService executorService;
-    private List<DirectoryInfo> directoryInfoList;
+    private IndexPipeline pipeline;
     private final String splitterInput;
     private final String columnsInput;
     private final boolean createSeparateTable;
+    private final String indexedColumnsInput;
+    private final boolean substringIndex;
+    private final boolean buildInMemory;
+    private final CrawlMode crawlMode;
+    private final int maxInFlight;
+    private final CrawlThrottle throttle;
+    private final boolean followLinks;
+    private final boolean sameFileSystem;
 
     public IndexDBFromDirectory(String directoryPath, JProgressBar progressBar, String splitterInput, String columnsInput, boolean createSeparateTable) {
-        this.directoryPath = directoryPath;
+        this(directoryPath != null ? List.of(directoryPath) : List.of(), progressBar, splitterInput, columnsInput,
+                createSeparateTable, "", false, false, CrawlMode.FORK_JOIN, CrawlMode.DEFAULT_MAX_IN_FLIGHT, CrawlThrottle.unlimited(), false, false);
+    }
+
+    /**
+     * @param directoryPaths The root directories, all written into the same database
+     * @param indexedColumnsInput Comma-separated names of the columns to index for searching
+     * @param substringIndex Whether to build a trigram index for searching any part of a name
+     * @param buildInMemory Whether to build the database in memory instead of in a scratch file
+     */
+    public IndexDBFromDirectory(List<String> directoryPaths, JProgressBar progressBar, String splitterInput, String columnsInput,
+                                boolean createSeparateTable, String indexedColumnsInput, boolean substringIndex, boolean buildInMemory, CrawlMode crawlMode,
+                                int maxInFlight, CrawlThrottle throttle,
+                                boolean followLinks, boolean sameFileSystem) {
+        this.directoryPaths = directoryPaths;
         this.progressBar = progressBar;
         this.isCancelled = new AtomicBoolean(false);
-        this.directoryInfoList = new ArrayList<>();
         this.splitterInput = splitterInput;
         this.columnsInput = columnsInput;
         this.createSeparateTable = createSeparateTable;
+        this.indexedColumnsInput = indexedColumnsInput;
+        this.substringIndex = substringIndex;
+        this.buildInMemory = buildInMemory;
+        this.crawlMode = crawlMode;
+        this.maxInFlight = maxInFlight;
+        this.throttle = throttle;
+        this.followLinks = followLinks;
+        this.sameFileSystem = sameFileSystem;
     }
 
     private Runnable onCompletionCallback;
+    private ProgressSampler.Listener onProgress;
 
     public void startIndexing() {
-        if (directoryPath == null || directoryPath.isEmpty()) {
+        if (directoryPaths == null || directoryPaths.isEmpty()) {
             JOptionPane.showMessageDialog(null, "Please select a directory first.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
+        // Ask for the save location up front, rows are written while the crawl is running
+        Component parent = progressBar.getParent();
+        File dbFile = CreateDBFile.chooseDatabaseFile(parent);
+        if (dbFile == null) {
+            if (onCompletionCallback != null) {
+                onCompletionCallback.run();
+            }
+            return;
+        }
+
         // Reset progress and cancel flag
         progressBar.setValue(0);
         isCancelled.set(false);
-        directoryInfoList.clear();
 
-        // Create a thread pool
-        executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        // Progress is estimated from the crawl frontier since the total is not known up front
+        CrawlProgress progress = new CrawlProgress();
 
-        // Start the indexing process in a separate thread to not block the UI
-        SwingWorker<Void, Integer> worker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() {
-                File rootDir = new File(directoryPath);
+        // Create the crawler for the selected mode
+        DirectoryFilter filter = new DirectoryFilter(followLinks, sameFileSystem);
+        MultiRootCrawler crawler = new MultiRootCrawler(crawlMode, isCancelled, progress, throttle, filter, maxInFlight);
+        IndexPipeline pipeline = new IndexPipeline(crawler, filter, isCancelled, dbFile, splitterInput, columnsInput, createSeparateTable,
+                indexedColumnsInput, substringIndex, buildInMemory);
+        this.pipeline = pipeline;
 
-                // First, count total number of subdirectories for progress tracking
-                AtomicInteger totalDirs = new AtomicInteger(0);
-                countSubdirectories(rootDir, totalDirs);
+        // The crawler only updates counters, a timer on the EDT samples them at a fixed rate
+        ProgressSampler sampler = new ProgressSampler(progress, pipeline, snapshot -> {
+            progressBar.setValue(Math.max(progressBar.getValue(), snapshot.percentComplete()));
 
-                if (totalDirs.get() == 0) {
-                    return null;
-                }
+            // Index builds and the final save report no progress of their own
+            IndexPipeline.Phase phase = snapshot.phase();
+            progressBar.setIndeterminate(phase == IndexPipeline.Phase.INDEXING || phase == IndexPipeline.Phase.SAVING);
+            progressBar.setString(phase + " " + progressBar.getValue() + "%");
+            if (onProgress != null) {
+                onProgress.progressUpdated(snapshot);
+            }
+        });
+        sampler.start();
 
-                // Now process the directories
-                AtomicInteger processedDirs = new AtomicInteger(0);
-                processDirectory(rootDir, processedDirs, totalDirs);
+        // Start the indexing process in a separate thread to not block the UI
+        SwingWorker<Long, Integer> worker = new SwingWorker<>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                List<Path> rootDirs = new ArrayList<>();
+                for (String directoryPath : directoryPaths) {
+                    rootDirs.add(Paths.get(directoryPath).toAbsolutePath());
+                }
 
-                // Shutdown the executor service
-                executorService.shutdown();
-                return null;
+                // Crawl in a single pass while the writer thread streams the results into the database
+                return pipeline.run(rootDirs);
             }
 
             @Override
             protected void done() {
-                if (isCancelled.get()) {
-                    progressBar.setValue(0);
-                    System.out.println("Indexing cancelled");
-                } else {
-                    progressBar.setValue(100);
-                    System.out.println("Indexing completed");
-
-                    // Create SQLite database with the collected directory information
-                    if (!directoryInfoList.isEmpty()) {
-                        // Get the parent component from the progress bar
-                        Component parent = progressBar.getParent();
-                        CreateDBFile.createDatabase(directoryInfoList, parent, splitterInput, columnsInput, createSeparateTable);
+                sampler.stop();
+                progressBar.setIndeterminate(false);
+                progressBar.setString(null);
+
+                // A failed run stops the crawl too, so the error is looked at before the cancel
+                try {
+                    long writtenDirs = get();
+                    if (pipeline.isCancelled()) {
+                        progressBar.setValue(0);
+                        System.out.println("Indexing cancelled");
                     } else {
-                        JOptionPane.showMessageDialog(
-                            progressBar.getParent(),
-                            "No directories found to index.",
-                            "Warning",
-                            JOptionPane.WARNING_MESSAGE
-                        );
+                        progressBar.setValue(100);
+                        System.out.println("Indexing completed");
+
+                        if (writtenDirs > 0) {
+                            JOptionPane.showMessageDialog(parent,
+                                "Database created successfully at:\n" + dbFile.getAbsolutePath(),
+                                "Success",
+                                JOptionPane.INFORMATION_MESSAGE);
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                parent,
+                                "No directories found to index.",
+                                "Warning",
+                                JOptionPane.WARNING_MESSAGE
+                            );
+                        }
                     }
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    progressBar.setValue(0);
+                    JOptionPane.showMessageDialog(parent,
+                        "Error creating database: " + cause.getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
                 }
 
                 // Call the completion callback if set
@@ -105,85 +173,196 @@ public class IndexDBFromDirectory {
         worker.execute();
     }
 
-    private void countSubdirectories(File directory, AtomicInteger count) {
-        if (isCancelled.get()) {
-            return;
+    public void cancel() {
+        isCancelled.set(true);
+        if (pipeline != null) {
+            pipeline.cancel();
         }
+    }
 
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    count.incrementAndGet();
-                    countSubdirectories(file, count);
-                }
-            }
-        }
+    public void setOnCompletionCallback(Runnable callback) {
+        this.onCompletionCallback = callback;
     }
 
-    private void processDirectory(File directory, AtomicInteger processedDirs, AtomicInteger totalDirs) {
-        if (isCancelled.get()) {
-            return;
-        }
+    /**
+     * Sets a listener for the progress samples, called on the EDT while indexing
+     *
+     * @param listener The listener
+     */
+    public void setOnProgress(ProgressSampler.Listener listener) {
+        this.onProgress = listener;
+    }
 
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (isCancelled.get()) {
-                    return;
-                }
+    // Inner class to store directory information
+    public static class DirectoryInfo {
 
-                if (file.isDirectory()) {
-                    // Add this directory to our list
-                    DirectoryInfo dirInfo = new DirectoryInfo(file.getName(), file.getAbsolutePath());
-                    synchronized (directoryInfoList) {
-                        directoryInfoList.add(dirInfo);
-                    }
+        /**
+         * Id of the first root directory of a crawl, further roots take the ids that follow it
+         */
+        public static final long ROOT_ID = 1;
 
-                    // Update progress
-                    int processed = processedDirs.incrementAndGet();
-                    int progress = (int) ((processed / (double) totalDirs.get()) * 100);
-                    SwingUtilities.invokeLater(() -> progressBar.setValue(progress));
+        /**
+         * Parent id used by the root directory
+         */
+        public static final long NO_PARENT = 0;
 
-                    // Process subdirectories in parallel
-                    final File currentDir = file;
-                    executorService.submit(() -> processDirectory(currentDir, processedDirs, totalDirs));
-                }
-            }
+        private final long id;
+        private final long rootId;
+        private final DirectoryInfo parent;
+        private final String filename;
+        private final long lastModified;
+        private final long creationTime;
+
+        // Only known once the directory itself has been listed
+        private int childCount;
+
+        /**
+         * Only the directory's own name is stored. The full path is rebuilt from the chain of
+         * parents when it is needed, so deep trees do not repeat the same long prefixes.
+         *
+         * @param id The id of the directory
+         * @param parent The parent directory, or null for the root
+         * @param filename The name of the directory, or the full path for the root
+         * @param lastModified The last-modified time in milliseconds
+         * @param creationTime The creation time in milliseconds
+         */
+        public DirectoryInfo(long id, DirectoryInfo parent, String filename, long lastModified, long creationTime) {
+            this(id, parent != null ? parent.getRootId() : id, parent, filename, lastModified, creationTime);
         }
-    }
 
-    public void cancel() {
-        isCancelled.set(true);
-        if (executorService != null) {
-            executorService.shutdownNow();
+        private DirectoryInfo(long id, long rootId, DirectoryInfo parent, String filename, long lastModified, long creationTime) {
+            this.id = id;
+            this.rootId = rootId;
+            this.parent = parent;
+            this.filename = filename;
+            this.lastModified = lastModified;
+            this.creationTime = creationTime;
         }
-    }
 
-    public List<DirectoryInfo> getDirectoryInfoList() {
-        return directoryInfoList;
-    }
+        /**
+         * Creates directory information from a path returned by a directory listing and
+         * the attributes that were read with it
+         *
+         * @param id The id of the directory
+         * @param parent The parent directory
+         * @param path The path of the directory
+         * @param attributes The attributes read while listing the parent directory
+         * @return The directory information
+         */
+        public static DirectoryInfo fromAttributes(long id, DirectoryInfo parent, Path path, BasicFileAttributes attributes) {
+            return new DirectoryInfo(id, parent, path.getFileName().toString(), attributes.lastModifiedTime().toMillis(),
+                    attributes.creationTime().toMillis());
+        }
 
-    public void setOnCompletionCallback(Runnable callback) {
-        this.onCompletionCallback = callback;
-    }
+        /**
+         * Creates directory information for a root of a crawl. A root is named by its full path.
+         *
+         * @param id The id of the root, see {@link #ROOT_ID}
+         * @param root The absolute path of the root directory
+         * @return The directory information
+         */
+        public static DirectoryInfo forRoot(long id, Path root) {
+            long lastModified = 0;
+            long creationTime = 0;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+                lastModified = attributes.lastModifiedTime().toMillis();
+                creationTime = attributes.creationTime().toMillis();
+            } catch (IOException e) {
+                // Leave it at 0 so the next incremental update lists the root again
+                System.err.println("Error reading attributes of " + root + ": " + e.getMessage());
+            }
+            return new DirectoryInfo(id, null, root.toString(), lastModified, creationTime);
+        }
 
-    // Inner class to store directory information
-    public static class DirectoryInfo {
-        private final String filename;
-        private final String fullPath;
+        /**
+         * Creates a stand-in for a directory that is already stored in an index, to be used as the
+         * parent of directories found below it
+         *
+         * @param id The stored id of the directory
+         * @param rootId The id of the root the directory was found under
+         * @param path The absolute path of the directory
+         * @return The directory information
+         */
+        public static DirectoryInfo forStoredDirectory(long id, long rootId, Path path) {
+            return new DirectoryInfo(id, rootId, null, path.toString(), 0, 0);
+        }
 
-        public DirectoryInfo(String filename, String fullPath) {
-            this.filename = filename;
-            this.fullPath = fullPath;
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return The id of the root directory this directory was found under, its own id for a root
+         */
+        public long getRootId() {
+            return rootId;
+        }
+
+        public long getParentId() {
+            return parent != null ? parent.getId() : NO_PARENT;
         }
 
         public String getFilename() {
             return filename;
         }
 
+        /**
+         * @return The full path, rebuilt from the names of this directory and its parents
+         */
         public String getFullPath() {
-            return fullPath;
+            if (parent == null) {
+                return filename;
+            }
+            return joinPath(parent.getFullPath(), filename, File.separator);
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getCreationTime() {
+            return creationTime;
+        }
+
+        /**
+         * @return The number of entries of any type directly inside the directory
+         */
+        public int getChildCount() {
+            return childCount;
+        }
+
+        /**
+         * Records the number of entries found when the directory was listed. Must be set before
+         * the directory is handed to a writer.
+         *
+         * @param childCount The number of entries of any type directly inside the directory
+         */
+        public void setChildCount(int childCount) {
+            this.childCount = childCount;
+        }
+
+        /**
+         * @return true for the root of a crawl, which has no row in the valid or invalid table
+         */
+        public boolean isRoot() {
+            return parent == null;
+        }
+
+        /**
+         * Appends a name to a parent path. File system roots such as "/" or "C:\" already end
+         * with the separator.
+         *
+         * @param parentPath The full path of the parent
+         * @param name The name of the child
+         * @param separator The name separator of the file system
+         * @return The full path of the child
+         */
+        public static String joinPath(String parentPath, String name, String separator) {
+            if (parentPath.endsWith(separator)) {
+                return parentPath + name;
+            }
+            return parentPath + separator + name;
         }
     }
 }
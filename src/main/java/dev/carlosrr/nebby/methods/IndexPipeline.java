@@ -0,0 +1,387 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+import dev.carlosrr.nebby.utils.CreateDBFile;
+import dev.carlosrr.nebby.utils.DBWriter;
+import dev.carlosrr.nebby.utils.FilenameParser;
+import dev.carlosrr.nebby.utils.IndexMetadata;
+import dev.carlosrr.nebby.utils.ParsedDirectory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the results of a crawl into a new index database while the crawl is running.
+ * <p>
+ * Crawler threads hand chunks of directories to a bounded queue. A few parser threads split the
+ * names into column values and decide between the valid and invalid table, and pass the ready rows
+ * on to a second bounded queue. A dedicated writer thread drains that one into the prepared
+ * statements of a {@link DBWriter}, doing nothing but binding and executing, so it is limited by
+ * the database rather than by parsing. When the writer falls behind the queues fill up and the
+ * crawler threads wait, so memory use stays flat no matter how large the tree is, and writing
+ * overlaps with crawling instead of starting after it. When several roots are crawled at once,
+ * they all feed the same queues and writer.
+ * <p>
+ * Every chunk is sent to the database as one JDBC batch, and the writer commits after a fixed
+ * number of directories. Neither the driver nor SQLite has to hold more than that at once. The
+ * database is built in memory or in a scratch file and only replaces the target file once it is
+ * complete.
+ * <p>
+ * A run goes through the {@link Phase phases} in order. It can be cancelled in any of them, which
+ * also interrupts a running index build or save. Cancelling throws the scratch database away, so
+ * the target file is never left with part of a run.
+ */
+public class IndexPipeline {
+
+    /**
+     * The step a run is in
+     */
+    public enum Phase {
+        CRAWLING("Crawling"),
+        WRITING("Writing"),
+        INDEXING("Building indexes"),
+        SAVING("Saving");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    // Number of chunks that may be waiting for the writer
+    private static final int QUEUE_CAPACITY = 64;
+
+    // Rows are committed every this many directories, so a transaction never grows with the tree
+    private static final int COMMIT_INTERVAL = 50_000;
+
+    // Parsing is cheap next to writing, a few threads keep up with a single writer
+    private static final int PARSER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    // Tells a parser thread that the crawl has finished. The queues compare by identity, so each
+    // end marker is a list of its own that no empty chunk can be mistaken for.
+    private static final List<DirectoryInfo> END_OF_CRAWL = Collections.unmodifiableList(new ArrayList<>());
+
+    // Tells the writer thread that every parser thread has finished
+    private static final List<ParsedDirectory> END_OF_PARSE = Collections.unmodifiableList(new ArrayList<>());
+
+    private final MultiRootCrawler crawler;
+    private final DirectoryFilter filter;
+    // Stops the crawl, set by a cancel and also when the crawl has to end early because of an error
+    private final AtomicBoolean isCancelled;
+    private final File dbFile;
+    private final String splitterInput;
+    private final String columnsInput;
+    private final boolean createSeparateTable;
+    private final String indexedColumnsInput;
+    private final boolean substringIndex;
+    private final boolean buildInMemory;
+
+    private final BlockingQueue<List<DirectoryInfo>> parseQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<List<ParsedDirectory>> writeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong writtenDirs = new AtomicLong(0);
+    // The first error of a parser or the writer, it ends the run
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private volatile Phase phase = Phase.CRAWLING;
+    private volatile Connection activeConnection;
+
+    public IndexPipeline(MultiRootCrawler crawler, DirectoryFilter filter, AtomicBoolean isCancelled, File dbFile,
+                         String splitterInput, String columnsInput, boolean createSeparateTable, String indexedColumnsInput,
+                         boolean substringIndex, boolean buildInMemory) {
+        this.crawler = crawler;
+        this.filter = filter;
+        this.isCancelled = isCancelled;
+        this.dbFile = dbFile;
+        this.splitterInput = splitterInput;
+        this.columnsInput = columnsInput;
+        this.createSeparateTable = createSeparateTable;
+        this.indexedColumnsInput = indexedColumnsInput;
+        this.substringIndex = substringIndex;
+        this.buildInMemory = buildInMemory;
+    }
+
+    /**
+     * Crawls the roots and writes every directory found into the database file. If the run is
+     * cancelled or fails, the partially built database is thrown away and the target file is left
+     * as it was.
+     *
+     * @param roots The directories to crawl, duplicates are ignored
+     * @return The number of directories written, not counting the roots
+     * @throws SQLException if the database cannot be written, or wrapping any other error of a
+     *                      parser or the writer thread
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public long run(List<Path> roots) throws SQLException, InterruptedException {
+        // The roots take the first ids, in the order they were given
+        List<DirectoryInfo> rootInfos = new ArrayList<>();
+        for (Path root : roots.stream().map(DirectoryFilter::resolveRoot).distinct().toList()) {
+            rootInfos.add(DirectoryInfo.forRoot(DirectoryInfo.ROOT_ID + rootInfos.size(), root));
+            filter.start(root);
+        }
+        // Each parser thread gets its own parser, an invalid splitter pattern fails here before the file is created
+        List<FilenameParser> parsers = new ArrayList<>();
+        for (int i = 0; i < PARSER_THREADS; i++) {
+            parsers.add(FilenameParser.create(splitterInput, columnsInput));
+        }
+
+        IndexMetadata metadata = new IndexMetadata(rootInfos.get(0).getFullPath(), splitterInput, columnsInput,
+                createSeparateTable, indexedColumnsInput, substringIndex, filter.isFollowLinks(), filter.isSameFileSystem());
+
+        try (Connection connection = CreateDBFile.createDatabase(dbFile, metadata, buildInMemory)) {
+            activeConnection = connection;
+            List<Thread> parserThreads = new ArrayList<>();
+            for (FilenameParser parser : parsers) {
+                Thread parserThread = new Thread(() -> parseChunks(parser), "nebby-parser-" + (parserThreads.size() + 1));
+                parserThreads.add(parserThread);
+                parserThread.start();
+            }
+            Thread writerThread = new Thread(() -> drainQueue(connection, rootInfos), "nebby-db-writer");
+            writerThread.start();
+
+            try {
+                crawler.crawl(rootInfos, this::enqueue);
+            } finally {
+                // The crawl is over, what remains is writing out the queues
+                phase = Phase.WRITING;
+
+                // Let every stage finish what is queued, or stop right away if a stage already failed
+                for (int i = 0; i < parserThreads.size(); i++) {
+                    while (failure == null && parserThreads.stream().anyMatch(Thread::isAlive)
+                            && !parseQueue.offer(END_OF_CRAWL, 100, TimeUnit.MILLISECONDS)) {
+                        // Keep trying until a parser makes room
+                    }
+                }
+                for (Thread parserThread : parserThreads) {
+                    joinStage(parserThread);
+                }
+                while (writerThread.isAlive() && !writeQueue.offer(END_OF_PARSE, 100, TimeUnit.MILLISECONDS)) {
+                    // Keep trying until the writer makes room, or stops after a cancel
+                }
+                joinStage(writerThread);
+            }
+
+            // A failed stage stops the crawl as well, which must not pass for a cancel
+            Throwable error = failure;
+            if (error instanceof SQLException sqlException) {
+                throw sqlException;
+            } else if (error instanceof Error fatalError) {
+                throw fatalError;
+            } else if (error != null) {
+                throw new SQLException("Indexing failed: " + error, error);
+            }
+
+            try {
+                if (!cancelled) {
+                    phase = Phase.INDEXING;
+                    CreateDBFile.finishDatabase(connection, metadata);
+                }
+                if (!cancelled) {
+                    phase = Phase.SAVING;
+                    CreateDBFile.saveDatabase(connection, dbFile);
+                }
+            } catch (SQLException e) {
+                // A cancel interrupts the running statement, that is not an error
+                if (!cancelled) {
+                    throw e;
+                }
+            }
+        } finally {
+            activeConnection = null;
+
+            // The scratch files are not needed once the target is saved, or if it never will be
+            CreateDBFile.deleteBuildFiles(dbFile);
+        }
+
+        return writtenDirs.get();
+    }
+
+    /**
+     * Cancels the run from any thread. The crawl stops, queued directories are dropped and a
+     * running index build or save is interrupted. {@link #run} then returns without touching the
+     * target file.
+     */
+    public void cancel() {
+        cancelled = true;
+        isCancelled.set(true);
+        crawler.cancel();
+
+        Connection connection = activeConnection;
+        if (connection != null) {
+            CreateDBFile.interrupt(connection);
+        }
+    }
+
+    /**
+     * @return Whether the run was cancelled through {@link #cancel}. A run that stopped because of
+     *         an error is not cancelled, {@link #run} throws the error instead.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits for a parser or the writer thread to finish. Once the run is stopping early, the
+     * thread is interrupted as well, so a stage waiting for a chunk that will never come cannot
+     * keep the run from returning.
+     */
+    private void joinStage(Thread thread) throws InterruptedException {
+        thread.join(100);
+        while (thread.isAlive()) {
+            if (isCancelled.get() || failure != null) {
+                thread.interrupt();
+            }
+            thread.join(100);
+        }
+    }
+
+    /**
+     * Hands a chunk to the parser threads, waiting while the queue is full
+     */
+    private void enqueue(List<DirectoryInfo> chunk) {
+        try {
+            while (!parseQueue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (failure != null || isCancelled.get()) {
+                    // Nobody is going to write this chunk, stop crawling
+                    crawler.cancel();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on a parser thread until the end of the crawl is signalled, or until the run stops
+     * early. A stopping run may have dropped the end marker with the rest of the queue.
+     */
+    private void parseChunks(FilenameParser parser) {
+        try {
+            while (true) {
+                List<DirectoryInfo> chunk = parseQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    if (failure != null || isCancelled.get()) {
+                        return;
+                    }
+                    continue;
+                }
+                if (chunk == END_OF_CRAWL) {
+                    return;
+                }
+                if (isCancelled.get() || failure != null) {
+                    continue;
+                }
+
+                List<ParsedDirectory> parsedChunk = new ArrayList<>(chunk.size());
+                for (DirectoryInfo info : chunk) {
+                    parsedChunk.add(ParsedDirectory.parse(info, parser));
+                }
+
+                while (!writeQueue.offer(parsedChunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (failure != null || isCancelled.get()) {
+                        // Nobody is going to write this chunk
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Any error, a bug in a parser included, ends the run instead of leaving the others waiting
+            stop(e);
+        }
+    }
+
+    /**
+     * Runs on the writer thread until the end of parsing is signalled
+     */
+    private void drainQueue(Connection connection, List<DirectoryInfo> rootInfos) {
+        try (DBWriter writer = new DBWriter(connection, splitterInput, columnsInput, createSeparateTable)) {
+            // The roots are only recorded in the directory tree
+            for (DirectoryInfo rootInfo : rootInfos) {
+                writer.add(rootInfo);
+            }
+            int uncommittedDirs = 0;
+
+            while (true) {
+                List<ParsedDirectory> chunk = writeQueue.take();
+                if (chunk == END_OF_PARSE) {
+                    break;
+                }
+                if (isCancelled.get()) {
+                    continue;
+                }
+
+                for (ParsedDirectory parsed : chunk) {
+                    writer.add(parsed);
+                }
+                writer.executeBatch();
+                writtenDirs.addAndGet(chunk.size());
+
+                uncommittedDirs += chunk.size();
+                if (uncommittedDirs >= COMMIT_INTERVAL) {
+                    connection.commit();
+                    uncommittedDirs = 0;
+                }
+            }
+        } catch (SQLException e) {
+            // A cancel interrupts the running statement, that is not an error
+            stop(cancelled ? null : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            stop(e);
+        }
+    }
+
+    /**
+     * Stops the crawl and drops whatever is queued, after a stage ended early
+     *
+     * @param error The error that ended the stage, or null if it was cancelled
+     */
+    private void stop(Throwable error) {
+        if (error != null && failure == null) {
+            failure = error;
+        }
+        crawler.cancel();
+        parseQueue.clear();
+        writeQueue.clear();
+    }
+
+    /**
+     * @return The step the run is in
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return The number of directories written so far
+     */
+    public long getWrittenDirs() {
+        return writtenDirs.get();
+    }
+
+    /**
+     * @return The number of chunks waiting to be parsed or written
+     */
+    public int getQueueDepth() {
+        return parseQueue.size() + writeQueue.size();
+    }
+}
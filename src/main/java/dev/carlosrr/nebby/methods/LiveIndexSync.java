@@ -0,0 +1,360 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+import dev.carlosrr.nebby.utils.DBWriter;
+import dev.carlosrr.nebby.utils.IndexMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps an index database in sync with the file system while it is open.
+ * <p>
+ * Every indexed directory is registered with a {@link WatchService}. Events are not applied one
+ * by one: each event only marks the watched directory as dirty, and once events stop arriving for
+ * a short window every dirty directory is listed once and compared with its stored children. This
+ * coalesces bursts such as a create followed by a rename, and also recovers from overflow events.
+ * Nothing is crawled again except the contents of newly created directories.
+ * <p>
+ * If the operating system refuses further watches (when inotify's {@code max_user_watches} is
+ * reached) registration stops and the sync keeps running for the directories that are already
+ * watched. A directory that cannot be read is only left out itself. A dirty directory that cannot
+ * be listed keeps its stored children and stays dirty, and is listed again after a while.
+ */
+public class LiveIndexSync {
+
+    /**
+     * Receives the changes applied by a batch. Called on the sync thread.
+     */
+    public interface Listener {
+
+        /**
+         * @param addedDirIds Ids of the directories added, their rows are already in the database
+         * @param removedPaths Full paths of the directories removed, everything below them was removed too
+         */
+        void changesApplied(List<Long> addedDirIds, List<String> removedPaths);
+
+        /**
+         * Called once if not every directory could be watched
+         *
+         * @param watchedDirs The number of directories that are being watched
+         */
+        void watchLimitReached(int watchedDirs);
+
+        /**
+         * Called once if the sync stopped because the database could not be updated. Changes
+         * are no longer applied afterwards.
+         *
+         * @param error The reason
+         */
+        void syncFailed(Exception error);
+    }
+
+    // How long to wait for more events before applying a batch
+    private static final long BATCH_WINDOW_MILLIS = 500;
+
+    // How long to wait before listing a directory again whose listing failed, if no event comes first
+    private static final long RETRY_MILLIS = 5000;
+
+    // Message of the error Linux reports when inotify's max_user_watches is used up (ENOSPC)
+    private static final String WATCH_LIMIT_MESSAGE = "User limit of inotify watches reached";
+
+    private final File dbFile;
+    private final Listener listener;
+    private final AtomicBoolean isStopped = new AtomicBoolean(false);
+    private final Map<WatchKey, WatchedDirectory> watchedDirs = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+    private Thread syncThread;
+    private Map<Long, Path> roots;
+    private boolean watchLimitReached;
+
+    private record WatchedDirectory(long id, long rootId, Path path) {
+    }
+
+    public LiveIndexSync(File dbFile, Listener listener) {
+        this.dbFile = dbFile;
+        this.listener = listener;
+    }
+
+    /**
+     * Registers the watches and starts applying changes on a background thread
+     *
+     * @throws SQLException if the database was not created with live sync support
+     * @throws IOException if the watch service cannot be created
+     */
+    public void start() throws SQLException, IOException {
+        try (Connection connection = openConnection()) {
+            IndexMetadata metadata = IndexMetadata.read(connection);
+            if (!IndexMetadata.supportsUpdates(metadata)) {
+                throw new SQLException("This database was created by an older version of Nebby and cannot be kept in sync. " +
+                        "Please create a new index instead.");
+            }
+            roots = IndexMetadata.readRoots(connection);
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+
+        syncThread = new Thread(this::run, "nebby-live-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Stops watching. Changes that have not been applied yet are discarded.
+     */
+    public void stop() {
+        isStopped.set(true);
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+    }
+
+    private void run() {
+        try (Connection connection = openConnection()) {
+            registerTree(connection);
+
+            // Directories stay here until they have been listed
+            Map<Long, WatchedDirectory> dirtyDirs = new LinkedHashMap<>();
+            while (!isStopped.get()) {
+                // Wait for the first event, then keep collecting until the window is quiet. Directories
+                // whose listing failed are tried again after a while even if nothing else happens.
+                WatchKey key = dirtyDirs.isEmpty() ? watchService.take() : watchService.poll(RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    WatchedDirectory directory = watchedDirs.get(key);
+                    key.pollEvents();
+                    if (directory != null) {
+                        dirtyDirs.put(directory.id(), directory);
+                    }
+                    if (!key.reset()) {
+                        watchedDirs.remove(key);
+                    }
+                    key = watchService.poll(BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                applyBatch(connection, dirtyDirs);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Live sync stopped: " + e.getMessage());
+            e.printStackTrace();
+            if (!isStopped.get()) {
+                listener.syncFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Registers a watch on every directory stored in the index, breadth first across all roots
+     * so that the top of every tree is covered if the watch limit is reached
+     */
+    private void registerTree(Connection connection) throws SQLException {
+        try (PreparedStatement childrenStatement = connection.prepareStatement(
+                "SELECT id, name FROM directories WHERE parent_id = ?")) {
+            Deque<WatchedDirectory> pending = new ArrayDeque<>();
+            for (Map.Entry<Long, Path> root : roots.entrySet()) {
+                pending.add(new WatchedDirectory(root.getKey(), root.getKey(), root.getValue()));
+            }
+
+            while (!pending.isEmpty() && !isStopped.get() && !watchLimitReached) {
+                WatchedDirectory directory = pending.poll();
+                register(directory);
+
+                childrenStatement.setLong(1, directory.id());
+                try (ResultSet resultSet = childrenStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        pending.add(new WatchedDirectory(resultSet.getLong(1), directory.rootId(),
+                                directory.path().resolve(resultSet.getString(2))));
+                    }
+                }
+            }
+        }
+    }
+
+    private void register(WatchedDirectory directory) {
+        if (watchLimitReached) {
+            return;
+        }
+
+        try {
+            WatchKey key = directory.path().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirs.put(key, directory);
+        } catch (AccessDeniedException | NoSuchFileException e) {
+            // Only this directory cannot be watched, or it is already gone
+        } catch (IOException e) {
+            if (WATCH_LIMIT_MESSAGE.equals(e.getMessage())) {
+                // The operating system is out of watches, none of the remaining directories can be watched
+                watchLimitReached = true;
+                System.err.println("Live sync watch limit reached after " + watchedDirs.size() + " directories: " + e.getMessage());
+                listener.watchLimitReached(watchedDirs.size());
+            } else {
+                System.err.println("Cannot watch " + directory.path() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lists every dirty directory once and applies the difference with the stored children. The
+     * directories that were handled are removed from the map, the ones that could not be listed
+     * stay in it.
+     */
+    private void applyBatch(Connection connection, Map<Long, WatchedDirectory> dirtyDirs) throws SQLException {
+        IndexMetadata metadata = IndexMetadata.read(connection);
+        List<Long> addedIds = new ArrayList<>();
+        List<WatchedDirectory> addedDirs = new ArrayList<>();
+        List<String> removedPaths = new ArrayList<>();
+        List<Long> handledIds = new ArrayList<>();
+
+        // A filter remembers every directory it accepted, so each batch needs a fresh one
+        DirectoryFilter filter = new DirectoryFilter(metadata.isFollowLinks(), metadata.isSameFileSystem());
+        for (Path root : roots.values()) {
+            filter.start(root);
+        }
+        DirectoryLister directoryLister = new DirectoryLister(isStopped, CrawlThrottle.unlimited(), filter);
+
+        connection.setAutoCommit(false);
+        try (DBWriter writer = new DBWriter(connection, metadata.getSplitterInput(), metadata.getColumnsInput(),
+                     metadata.isCreateSeparateTable());
+             PreparedStatement childrenStatement = connection.prepareStatement(
+                     "SELECT id, name FROM directories WHERE parent_id = ?");
+             Statement statement = connection.createStatement()) {
+
+            // Read the next id inside the transaction in case the file was updated elsewhere
+            long[] nextId = new long[1];
+            try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM directories")) {
+                nextId[0] = resultSet.next() ? resultSet.getLong(1) : DirectoryInfo.ROOT_ID + 1;
+            }
+
+            for (WatchedDirectory directory : dirtyDirs.values()) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(directory.path(), BasicFileAttributes.class, filter.getLinkOptions());
+                } catch (IOException e) {
+                    // Deleted as well, its parent's event takes care of it
+                    handledIds.add(directory.id());
+                    continue;
+                }
+
+                Map<String, Long> storedChildren = new HashMap<>();
+                childrenStatement.setLong(1, directory.id());
+                try (ResultSet resultSet = childrenStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        storedChildren.put(resultSet.getString(2), resultSet.getLong(1));
+                    }
+                }
+
+                DirectoryInfo parentInfo = DirectoryInfo.forStoredDirectory(directory.id(), directory.rootId(), directory.path());
+                List<DirectoryInfo> created = new ArrayList<>();
+                int entryCount;
+                try {
+                    entryCount = directoryLister.listSubdirectoriesCompletely(directory.path(), (subdirectory, childAttributes) -> {
+                        if (storedChildren.remove(subdirectory.getFileName().toString()) == null) {
+                            created.add(DirectoryInfo.fromAttributes(nextId[0]++, parentInfo, subdirectory, childAttributes));
+                        }
+                    });
+                } catch (IOException e) {
+                    // A failed listing says nothing about what was deleted, keep what is stored and try again later
+                    System.err.println("Live sync cannot list " + directory.path() + ", trying again later: " + e);
+                    continue;
+                }
+                if (isStopped.get()) {
+                    // The listing was cut short
+                    break;
+                }
+
+                // Whatever was not listed again has been deleted or renamed
+                for (Map.Entry<String, Long> removed : storedChildren.entrySet()) {
+                    Path removedPath = directory.path().resolve(removed.getKey());
+                    writer.deleteSubtree(removed.getValue());
+                    removedPaths.add(removedPath.toString());
+                    unregisterSubtree(removedPath);
+                }
+
+                // New directories may have been moved in with content, so crawl below them
+                Deque<DirectoryInfo> pending = new ArrayDeque<>(created);
+                while (!pending.isEmpty()) {
+                    DirectoryInfo info = pending.pop();
+
+                    // List it first so the child count is known when it is written
+                    info.setChildCount(directoryLister.listSubdirectories(Paths.get(info.getFullPath()), (subdirectory, childAttributes) ->
+                            pending.push(DirectoryInfo.fromAttributes(nextId[0]++, info, subdirectory, childAttributes))));
+
+                    writer.add(info);
+                    addedIds.add(info.getId());
+                    addedDirs.add(new WatchedDirectory(info.getId(), info.getRootId(), Paths.get(info.getFullPath())));
+                }
+
+                writer.updateDirectory(directory.id(), attributes.lastModifiedTime().toMillis(), entryCount);
+                handledIds.add(directory.id());
+            }
+
+            if (isStopped.get()) {
+                connection.rollback();
+                return;
+            }
+            writer.executeBatch();
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        dirtyDirs.keySet().removeAll(handledIds);
+
+        for (WatchedDirectory directory : addedDirs) {
+            register(directory);
+        }
+
+        if (!addedIds.isEmpty() || !removedPaths.isEmpty()) {
+            listener.changesApplied(addedIds, removedPaths);
+        }
+    }
+
+    /**
+     * Cancels the watches of a removed directory and everything below it. A renamed directory
+     * keeps its watch on some platforms, which would otherwise report events under the old path.
+     */
+    private void unregisterSubtree(Path removedPath) {
+        watchedDirs.entrySet().removeIf(entry -> {
+            if (entry.getValue().path().startsWith(removedPath)) {
+                entry.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+    }
+}
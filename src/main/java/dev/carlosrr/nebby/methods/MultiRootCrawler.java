@@ -0,0 +1,137 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crawls several root directories into the same index at once.
+ * <p>
+ * Roots are grouped by the {@link java.nio.file.FileStore} they are on. Every group is crawled on
+ * its own thread, one root after the other, with a fresh {@link DirectoryCrawler} of the chosen
+ * mode per root. Different disks are therefore listed in parallel while each disk only serves one
+ * crawl at a time, so the total time is bounded by the slowest disk instead of the sum of all of
+ * them. All crawlers share the filter, the throttle, the progress counters and the id sequence, and
+ * hand their results to the same sink.
+ */
+public class MultiRootCrawler {
+
+    private final CrawlMode crawlMode;
+    private final AtomicBoolean isCancelled;
+    private final CrawlProgress progress;
+    private final CrawlThrottle throttle;
+    private final DirectoryFilter filter;
+    private final int maxInFlight;
+
+    // Crawlers that have been created, kept so cancel() can reach them
+    private final Queue<DirectoryCrawler> crawlers = new ConcurrentLinkedQueue<>();
+
+    private volatile RuntimeException crawlError;
+
+    public MultiRootCrawler(CrawlMode crawlMode, AtomicBoolean isCancelled, CrawlProgress progress, CrawlThrottle throttle,
+                            DirectoryFilter filter, int maxInFlight) {
+        this.crawlMode = crawlMode;
+        this.isCancelled = isCancelled;
+        this.progress = progress;
+        this.throttle = throttle;
+        this.filter = filter;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Crawls every directory below the roots and waits for all of them to finish
+     *
+     * @param rootInfos The roots, named by their full paths and with the lowest ids of the index
+     * @param sink Receives every subdirectory found, from several threads at once
+     * @throws InterruptedException if the calling thread is interrupted, the crawl is cancelled
+     */
+    public void crawl(List<DirectoryInfo> rootInfos, DirectorySink sink) throws InterruptedException {
+        // Subdirectories are numbered after the roots
+        long maxRootId = DirectoryInfo.ROOT_ID - 1;
+        for (DirectoryInfo rootInfo : rootInfos) {
+            maxRootId = Math.max(maxRootId, rootInfo.getId());
+        }
+        AtomicLong nextId = new AtomicLong(maxRootId + 1);
+
+        List<Thread> threads = new ArrayList<>();
+        int groupNumber = 0;
+        for (List<DirectoryInfo> group : groupByFileStore(rootInfos)) {
+            String threadName = "nebby-crawl-" + (++groupNumber);
+            Thread thread = new Thread(() -> crawlGroup(group, nextId, sink), threadName);
+            threads.add(thread);
+            thread.start();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        }
+
+        if (crawlError != null) {
+            throw crawlError;
+        }
+    }
+
+    /**
+     * Groups roots that are on the same file store, keeping the order they were given in
+     */
+    private static List<List<DirectoryInfo>> groupByFileStore(List<DirectoryInfo> rootInfos) {
+        Map<Object, List<DirectoryInfo>> groups = new LinkedHashMap<>();
+        for (DirectoryInfo rootInfo : rootInfos) {
+            Object store;
+            try {
+                store = Files.getFileStore(Paths.get(rootInfo.getFilename()));
+            } catch (IOException e) {
+                // Unknown device, give it a group of its own
+                store = rootInfo;
+            }
+            groups.computeIfAbsent(store, key -> new ArrayList<>()).add(rootInfo);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Runs on a group thread and crawls the roots of one file store one after the other
+     */
+    private void crawlGroup(List<DirectoryInfo> group, AtomicLong nextId, DirectorySink sink) {
+        try {
+            for (DirectoryInfo rootInfo : group) {
+                DirectoryCrawler crawler = crawlMode.createCrawler(isCancelled, progress, throttle, filter, nextId, maxInFlight);
+                crawlers.add(crawler);
+
+                // Checked after registering, so a concurrent cancel() either sees the crawler or is seen here
+                if (isCancelled.get()) {
+                    return;
+                }
+                crawler.crawl(Paths.get(rootInfo.getFilename()), rootInfo, sink);
+            }
+        } catch (RuntimeException e) {
+            crawlError = e;
+            cancel();
+        }
+    }
+
+    /**
+     * Stops every crawl. Listings that have not started yet are discarded.
+     */
+    public void cancel() {
+        isCancelled.set(true);
+        for (DirectoryCrawler crawler : crawlers) {
+            crawler.cancel();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package dev.carlosrr.nebby.methods;
+
+import javax.swing.Timer;
+
+/**
+ * Publishes the progress of a running index to the UI at a fixed rate.
+ * <p>
+ * Crawler and writer threads only bump atomic counters; they never post anything to the
+ * event queue. A Swing {@link Timer} reads the counters on the EDT a fixed number
+ * of times per second and hands an aggregated {@link Snapshot} to the listener, so the UI cost
+ * stays the same no matter how fast the crawl is.
+ */
+public class ProgressSampler {
+
+    /**
+     * Number of samples published per second
+     */
+    public static final int SAMPLES_PER_SECOND = 15;
+
+    // Weight of the newest sample in the smoothed rate
+    private static final double RATE_SMOOTHING = 0.2;
+
+    /**
+     * The progress of an index at one point in time
+     *
+     * @param listedDirs Directories listed so far
+     * @param discoveredDirs Directories found so far, listed or not
+     * @param phase The step the run is in
+     * @param writtenDirs Directories written to the database so far
+     * @param queueDepth Chunks waiting to be parsed or written
+     * @param dirsPerSecond Smoothed number of directories listed per second
+     * @param writtenPerSecond Smoothed number of directories written per second
+     * @param elapsedMillis Time since the sampler was started
+     * @param etaMillis Estimated time until the crawl finishes, or -1 while unknown
+     * @param percentComplete Estimated percentage of the crawl that has completed (0-100)
+     */
+    public record Snapshot(IndexPipeline.Phase phase, int listedDirs, int discoveredDirs, long writtenDirs, int queueDepth,
+                           double dirsPerSecond, double writtenPerSecond, long elapsedMillis, long etaMillis, int percentComplete) {
+    }
+
+    /**
+     * Receives the samples. Always called on the EDT.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void progressUpdated(Snapshot snapshot);
+    }
+
+    private final CrawlProgress progress;
+    private final IndexPipeline pipeline;
+    private final Listener listener;
+    private final Timer timer;
+
+    private long startTime;
+    private long lastSampleTime;
+    private int lastListedDirs;
+    private long lastWrittenDirs;
+    private double dirsPerSecond;
+    private double writtenPerSecond;
+
+    /**
+     * @param progress The counters updated by the crawler
+     * @param pipeline The pipeline writing the results, for the written count and queue depth
+     * @param listener Receives every sample on the EDT
+     */
+    public ProgressSampler(CrawlProgress progress, IndexPipeline pipeline, Listener listener) {
+        this.progress = progress;
+        this.pipeline = pipeline;
+        this.listener = listener;
+        this.timer = new Timer(1000 / SAMPLES_PER_SECOND, e -> sample());
+    }
+
+    /**
+     * Starts publishing samples. Must be called on the EDT.
+     */
+    public void start() {
+        startTime = System.nanoTime();
+        lastSampleTime = startTime;
+        timer.start();
+    }
+
+    /**
+     * Stops publishing and sends one last sample. Must be called on the EDT.
+     */
+    public void stop() {
+        timer.stop();
+        sample();
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        int listedDirs = progress.getFinishedDirs();
+        int discoveredDirs = progress.getDiscoveredDirs();
+        long writtenDirs = pipeline.getWrittenDirs();
+
+        // Smooth the rates so the display does not jump around between samples
+        double seconds = (now - lastSampleTime) / 1_000_000_000.0;
+        if (seconds > 0) {
+            dirsPerSecond = smooth(dirsPerSecond, (listedDirs - lastListedDirs) / seconds);
+            writtenPerSecond = smooth(writtenPerSecond, (writtenDirs - lastWrittenDirs) / seconds);
+        }
+        lastSampleTime = now;
+        lastListedDirs = listedDirs;
+        lastWrittenDirs = writtenDirs;
+
+        // The frontier still to be listed, divided by the current rate
+        int remainingDirs = discoveredDirs - listedDirs;
+        long etaMillis = dirsPerSecond > 0 ? (long) (remainingDirs / dirsPerSecond * 1000) : -1;
+
+        listener.progressUpdated(new Snapshot(pipeline.getPhase(), listedDirs, discoveredDirs, writtenDirs, pipeline.getQueueDepth(),
+                dirsPerSecond, writtenPerSecond, (now - startTime) / 1_000_000, etaMillis, progress.getPercentComplete()));
+    }
+
+    private static double smooth(double smoothedRate, double currentRate) {
+        return smoothedRate == 0 ? currentRate : smoothedRate + RATE_SMOOTHING * (currentRate - smoothedRate);
+    }
+
+    /**
+     * Formats a duration as minutes and seconds, or hours, minutes and seconds
+     *
+     * @param millis The duration in milliseconds
+     * @return The formatted duration
+     */
+    public static String formatDuration(long millis) {
+        long totalSeconds = millis / 1000;
+        long hours = totalSeconds / 3600;
+        long minutes = (totalSeconds % 3600) / 60;
+        long seconds = totalSeconds % 60;
+        return hours > 0
+                ? String.format("%d:%02d:%02d", hours, minutes, seconds)
+                : String.format("%02d:%02d", minutes, seconds);
+    }
+}
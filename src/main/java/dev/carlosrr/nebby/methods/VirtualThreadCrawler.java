@@ -0,0 +1,206 @@
+package dev.carlosrr.nebby.methods;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crawls a directory tree with a fixed number of virtual threads listing directories at once.
+ * <p>
+ * Listings on NFS/SMB mounts spend most of their time blocked on the server, so a
+ * processor-sized pool sits idle. Virtual threads make it cheap to keep hundreds of listings
+ * outstanding. The max in-flight setting is the number of worker threads, so the server is not
+ * overwhelmed.
+ * <p>
+ * Directories waiting to be listed go into a bounded queue that the workers take from, newest
+ * first, so the crawl goes depth-first and the queue stays small. When the queue is full, a
+ * worker lists the new directory itself. A worker keeps its place while it waits for a full sink,
+ * so a slow writer slows down the listings instead of letting found directories pile up in memory.
+ * <p>
+ * Virtual threads are not pooled, so there are no per-thread buffers. Listed directories are
+ * collected in one shared buffer that is handed to the sink whenever it fills up.
+ */
+public class VirtualThreadCrawler implements DirectoryCrawler {
+
+    // Number of directories collected before handing them to the sink
+    private static final int CHUNK_SIZE = 1024;
+
+    // Number of directories that may wait to be listed, further ones are listed right away
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /**
+     * A directory waiting to be listed
+     */
+    private record Work(Path directory, DirectoryInfo info) {
+    }
+
+    private final DirectoryLister directoryLister;
+    private final AtomicBoolean isCancelled;
+    private final CrawlProgress progress;
+    private final int workerCount;
+    private final ExecutorService executor;
+    private final AtomicLong nextId;
+    private final BlockingDeque<Work> queue = new LinkedBlockingDeque<>(QUEUE_CAPACITY);
+
+    // Number of directories found but not finished yet, the crawl is done when it reaches zero
+    private final AtomicLong pending = new AtomicLong(0);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private DirectorySink sink;
+
+    // Guarded by this
+    private List<DirectoryInfo> buffer = new ArrayList<>(CHUNK_SIZE);
+
+    public VirtualThreadCrawler(AtomicBoolean isCancelled, CrawlProgress progress, CrawlThrottle throttle, DirectoryFilter filter,
+                                AtomicLong nextId, int maxInFlight) {
+        this.directoryLister = new DirectoryLister(isCancelled, throttle, filter);
+        this.isCancelled = isCancelled;
+        this.progress = progress;
+        this.nextId = nextId;
+        this.workerCount = Math.max(1, maxInFlight);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Override
+    public void crawl(Path root, DirectoryInfo rootInfo, DirectorySink sink) {
+        this.sink = sink;
+        discover(root, rootInfo);
+
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                executor.execute(this::work);
+            }
+            finished.await();
+        } catch (RejectedExecutionException e) {
+            // The crawl was cancelled
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        } finally {
+            // Idle workers wait for directories that are not coming anymore
+            executor.shutdownNow();
+            awaitWorkers();
+        }
+
+        // Hand over whatever is left
+        List<DirectoryInfo> remaining;
+        synchronized (this) {
+            remaining = buffer;
+            buffer = new ArrayList<>();
+        }
+        if (!remaining.isEmpty()) {
+            sink.accept(remaining);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        isCancelled.set(true);
+        executor.shutdownNow();
+
+        // Directories still queued are never finished
+        finished.countDown();
+    }
+
+    /**
+     * Waits until no worker hands anything to the sink anymore
+     */
+    private void awaitWorkers() {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // A listing or a full sink is still holding a worker
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on a worker thread, listing queued directories until the crawl is over
+     */
+    private void work() {
+        try {
+            while (true) {
+                // After a cancel the rest of the queue is only counted off, not listed
+                Work work = queue.takeFirst();
+                processDirectory(work.directory(), work.info());
+            }
+        } catch (InterruptedException e) {
+            // The crawl finished or was cancelled
+        }
+    }
+
+    /**
+     * Queues a directory to be listed, or lists it right away if the queue is full
+     */
+    private void discover(Path directory, DirectoryInfo info) {
+        pending.incrementAndGet();
+        progress.directoryDiscovered();
+
+        if (!queue.offerFirst(new Work(directory, info))) {
+            processDirectory(directory, info);
+        }
+    }
+
+    private void processDirectory(Path directory, DirectoryInfo info) {
+        try {
+            if (isCancelled.get()) {
+                return;
+            }
+
+            List<Path> subdirectories = new ArrayList<>();
+            List<DirectoryInfo> found = new ArrayList<>();
+            int entryCount = directoryLister.listSubdirectories(directory, (subdirectory, attributes) -> {
+                found.add(DirectoryInfo.fromAttributes(nextId.getAndIncrement(), info, subdirectory, attributes));
+                subdirectories.add(subdirectory);
+            });
+
+            // A directory is handed over once it has been listed, so its child count is known. The
+            // worker waits here while the sink is full, so no further listings start meanwhile.
+            if (!info.isRoot()) {
+                info.setChildCount(entryCount);
+                emit(info);
+            }
+            progress.directoryFinished();
+
+            for (int i = 0; i < subdirectories.size(); i++) {
+                discover(subdirectories.get(i), found.get(i));
+            }
+        } finally {
+            directoryDone();
+        }
+    }
+
+    private void emit(DirectoryInfo info) {
+        List<DirectoryInfo> chunk = null;
+        synchronized (this) {
+            buffer.add(info);
+            if (buffer.size() >= CHUNK_SIZE) {
+                chunk = buffer;
+                buffer = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+
+        // Outside the lock, the sink may block while the writer catches up
+        if (chunk != null) {
+            sink.accept(chunk);
+        }
+    }
+
+    private void directoryDone() {
+        if (pending.decrementAndGet() == 0) {
+            finished.countDown();
+        }
+    }
+}
@@ -1,30 +1,64 @@
 package dev.carlosrr.nebby.panels;
 
 import dev.carlosrr.nebby.dialogs.ViewInvalidRecords;
+import dev.carlosrr.nebby.methods.LiveIndexSync;
+import dev.carlosrr.nebby.utils.CreateDBFile;
 import dev.carlosrr.nebby.utils.LoadDBFile;
+import dev.carlosrr.nebby.utils.PagedRowSorter;
+import dev.carlosrr.nebby.utils.PagedTableModel;
 import dev.carlosrr.nebby.utils.RecentDBManager;
+import dev.carlosrr.nebby.utils.SearchDBFile;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
-import javax.swing.table.TableRowSorter;
-import javax.swing.RowFilter;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class ContentPanel extends JPanel {
 
+    // Search choice that looks for the text anywhere in the names and paths
+    private static final String ALL_COLUMNS = "All columns";
+
+    // Search choice that matches words of every name column through the full-text index, best matches first
+    private static final String FULL_TEXT = "Full text";
+
+    // Search choice that matches any part of a name through the trigram index
+    private static final String CONTAINS = "Contains";
+
+    // Time without typing before the search runs, so fast typing starts one search instead of one per key
+    private static final int SEARCH_DELAY_MILLIS = 150;
+
     private JPanel centerPanel;
     private JPanel initialPanel;
     private JScrollPane tableScrollPane;
     private StatusPanel statusPanel;
     private JTable table;
-    private TableRowSorter<DefaultTableModel> sorter;
+    private PagedTableModel tableModel;
+    private File loadedDbFile;
+    private LiveIndexSync liveIndexSync;
+    private SearchDBFile searchDBFile;
+    private JTextField searchField;
+    private JComboBox<String> searchColumnComboBox;
+    private Timer searchTimer;
+    private boolean columnsSized;
+
+    // Increases with every file opened, so an older open that finishes late is discarded
+    private int loadRequest;
+
+    /**
+     * What is read from a database file in the background before it is shown
+     */
+    private record LoadedDatabase(File dbFile, PagedTableModel tableModel, SearchDBFile searchDBFile, int invalidRecords) {
+    }
 
     public ContentPanel(StatusPanel statusPanel) {
         this.statusPanel = statusPanel;
@@ -65,188 +99,422 @@ public class ContentPanel extends JPanel {
     }
 
     /**
-     * Filters the table based on the search text
+     * Filters the table based on the search text. Every search is run by the database in the
+     * background, and starting a new one interrupts the previous one: a full-text search is
+     * ranked and the rows are shown in that order, a contains search looks up any part of a name
+     * in the trigram index, a column with a search index is searched by prefix, otherwise the text
+     * is looked for anywhere in the names and paths.
      * 
      * @param searchText The text to filter by
      */
     private void filterTable(String searchText) {
+        String searchColumn = (String) searchColumnComboBox.getSelectedItem();
+
         if (searchText.trim().isEmpty()) {
-            sorter.setRowFilter(null);
+            tableModel.clearFilter();
+        } else if (searchDBFile == null) {
+            // Without the search indexes every row stays visible
+            tableModel.clearFilter();
+        } else if (FULL_TEXT.equals(searchColumn)) {
+            tableModel.setFilter(searchDBFile.fullText(searchText));
+        } else if (CONTAINS.equals(searchColumn)) {
+            String text = searchText.trim();
+            if (text.codePointCount(0, text.length()) < CreateDBFile.MIN_SUBSTRING_LENGTH) {
+                // Too short for a trigram, every name is read instead
+                tableModel.setFilter(searchDBFile.matching(text));
+            } else {
+                tableModel.setFilter(searchDBFile.containing(text));
+            }
+        } else if (searchColumn != null && !searchColumn.equals(ALL_COLUMNS)) {
+            // Only the rows found through the index are shown
+            tableModel.setFilter(searchDBFile.startingWith(searchColumn, searchText.trim()));
         } else {
-            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + searchText));
+            tableModel.setFilter(searchDBFile.matching(searchText));
         }
 
-        // Update the visible rows count in the status panel
-        statusPanel.updateVisibleRows(table.getRowCount());
+        // The status panel follows the rows as the model reads them
     }
 
     /**
-     * Loads a specific database file and displays its contents in a table
+     * Loads a specific database file and displays its contents in a table. The file is opened in
+     * the background and its rows stream into the table, so this returns right away.
      * 
      * @param dbFile The database file to load
-     * @return true if the file was loaded successfully, false otherwise
      */
-    public boolean loadSpecificDatabaseFile(File dbFile) {
-        // Use the LoadDBFile utility to load the specific database file
-        Object[] result = LoadDBFile.loadSpecificDatabaseFile(dbFile);
+    public void loadSpecificDatabaseFile(File dbFile) {
+        int request = ++loadRequest;
+        statusPanel.updateDbFile(dbFile.getName() + " (loading)");
+
+        SwingWorker<LoadedDatabase, Void> worker = new SwingWorker<>() {
+            @Override
+            protected LoadedDatabase doInBackground() throws Exception {
+                // Only the columns are read here, the model reads the rows on its own thread
+                PagedTableModel tableModel = LoadDBFile.openDatabaseFile(dbFile);
+
+                // The file can still be browsed without its search indexes
+                SearchDBFile search = null;
+                try {
+                    search = new SearchDBFile(dbFile);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
 
-        // Process the result
-        return processLoadResult(result);
+                return new LoadedDatabase(dbFile, tableModel, search, LoadDBFile.countInvalidRecords(dbFile));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    LoadedDatabase loaded = get();
+                    if (request == loadRequest) {
+                        showDatabase(loaded);
+                    } else {
+                        // Another file was opened in the meantime
+                        loaded.tableModel().close();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (request == loadRequest) {
+                        statusPanel.updateDbFile(loadedDbFile != null ? loadedDbFile.getName() : null);
+                    }
+                    JOptionPane.showMessageDialog(ContentPanel.this,
+                        "Error loading database: " + cause.getMessage(),
+                        "Database Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    cause.printStackTrace();
+                }
+            }
+        };
+
+        worker.execute();
     }
 
     /**
      * Loads a database file and displays its contents in a table
      */
     public void loadDatabaseFile() {
-        // Use the LoadDBFile utility to load a database file
-        Object[] result = LoadDBFile.loadDatabaseFile(this);
+        // Use the LoadDBFile utility to choose a database file
+        File dbFile = LoadDBFile.chooseDatabaseFile(this);
+        if (dbFile != null) {
+            loadSpecificDatabaseFile(dbFile);
+        }
+    }
 
-        // Process the result
-        processLoadResult(result);
+    /**
+     * @return The database file currently displayed, or null if none has been loaded
+     */
+    public File getLoadedDbFile() {
+        return loadedDbFile;
     }
 
     /**
-     * Processes the result of loading a database file
+     * Shows a database file that was opened in the background
      * 
-     * @param result The result of loading a database file
-     * @return true if the file was loaded successfully, false otherwise
+     * @param loaded The opened file
      */
-    private boolean processLoadResult(Object[] result) {
-        // If a result was returned (user selected a file and it was loaded successfully)
-        if (result != null) {
-            File selectedFile = (File) result[0];
-            DefaultTableModel tableModel = (DefaultTableModel) result[1];
-
-            // Save the path to the most recently loaded database file
-            RecentDBManager.saveRecentDBFilePath(selectedFile.getAbsolutePath());
-
-            // Create a table with the model
-            table = new JTable(tableModel) {
-                @Override
-                public boolean isCellEditable(int row, int column) {
-                    return false; // Make all cells non-editable
-                }
-            };
-
-            // Set up the row sorter for filtering
-            sorter = new TableRowSorter<>(tableModel);
-            table.setRowSorter(sorter);
-
-            // Make the table fill the viewport
-            table.setFillsViewportHeight(true);
-
-            // Auto-resize columns to fit their content
-            table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-            for (int column = 0; column < table.getColumnCount(); column++) {
-                int width = 15; // Min width
-
-                // Get width of column header
-                Object headerValue = table.getColumnModel().getColumn(column).getHeaderValue();
-                TableCellRenderer headerRenderer = table.getTableHeader().getDefaultRenderer();
-                Component headerComp = headerRenderer.getTableCellRendererComponent(
-                        table, headerValue, false, false, 0, column);
-                width = Math.max(width, headerComp.getPreferredSize().width);
-
-                // Get width of each cell in the column
-                for (int row = 0; row < table.getRowCount(); row++) {
-                    Object value = table.getValueAt(row, column);
-                    Component comp = table.getDefaultRenderer(table.getColumnClass(column))
-                            .getTableCellRendererComponent(table, value, false, false, row, column);
-                    width = Math.max(width, comp.getPreferredSize().width);
-                }
+    private void showDatabase(LoadedDatabase loaded) {
+        File selectedFile = loaded.dbFile();
+        PagedTableModel tableModel = loaded.tableModel();
+
+        // Save the path to the most recently loaded database file
+        RecentDBManager.saveRecentDBFilePath(selectedFile.getAbsolutePath());
+        loadedDbFile = selectedFile;
+
+        // Live sync, search and rows belong to the previously loaded file
+        stopLiveSync();
+        stopSearchTimer();
+        closeTableModel();
+        this.tableModel = tableModel;
+        searchDBFile = loaded.searchDBFile();
+
+        // Create a table with the model
+        table = new JTable(tableModel) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false; // Make all cells non-editable
+            }
+        };
 
-                // Add some padding
-                width += 10;
+        // Clicking a column header sorts the rows in the database
+        table.setRowSorter(new PagedRowSorter(tableModel));
 
-                // Set the width
-                table.getColumnModel().getColumn(column).setPreferredWidth(width);
-            }
+        // The row id in the first column is only used to match search results
+        table.removeColumn(table.getColumnModel().getColumn(0));
 
-            // Add double-click listener to open directory
-            table.addMouseListener(new MouseAdapter() {
-                @Override
-                public void mouseClicked(MouseEvent e) {
-                    if (e.getClickCount() == 2) {
-                        int row = table.getSelectedRow();
-                        if (row != -1) {
-                            // Convert row index to model index in case of sorting
-                            int modelRow = table.convertRowIndexToModel(row);
-                            // The path is in the last column
-                            String path = tableModel.getValueAt(modelRow, tableModel.getColumnCount() - 1).toString();
-                            try {
-                                Desktop.getDesktop().open(new File(path));
-                            } catch (IOException ex) {
-                                JOptionPane.showMessageDialog(ContentPanel.this,
-                                    "Error opening directory: " + ex.getMessage(),
-                                    "Error", JOptionPane.ERROR_MESSAGE);
-                            }
+        // Make the table fill the viewport
+        table.setFillsViewportHeight(true);
+
+        // Columns are sized to the first page once it has arrived
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        columnsSized = false;
+        sizeColumnsToFirstPage();
+
+        // Rows arrive in chunks, the counts in the status panel follow them
+        tableModel.addTableModelListener(e -> {
+            statusPanel.updateTotalRows(tableModel.getTotalRowCount());
+            statusPanel.updateVisibleRows(tableModel.getRowCount());
+            sizeColumnsToFirstPage();
+        });
+
+        // Add double-click listener to open directory
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    int row = table.getSelectedRow();
+                    if (row != -1) {
+                        // Convert row index to model index in case of sorting
+                        int modelRow = table.convertRowIndexToModel(row);
+                        // The path is in the last column, empty while its page is being read
+                        Object path = tableModel.getValueAt(modelRow, tableModel.getColumnCount() - 1);
+                        if (path == null) {
+                            return;
+                        }
+                        try {
+                            Desktop.getDesktop().open(new File(path.toString()));
+                        } catch (IOException ex) {
+                            JOptionPane.showMessageDialog(ContentPanel.this,
+                                "Error opening directory: " + ex.getMessage(),
+                                "Error", JOptionPane.ERROR_MESSAGE);
                         }
                     }
                 }
-            });
+            }
+        });
 
-            // Create a scroll pane for the table
-            tableScrollPane = new JScrollPane(table);
+        // Create a scroll pane for the table
+        tableScrollPane = new JScrollPane(table);
 
-            // Remove the initial panel
-            centerPanel.removeAll();
+        // Remove the initial panel
+        centerPanel.removeAll();
 
-            // Add the table scroll pane
-            centerPanel.add(tableScrollPane, BorderLayout.CENTER);
+        // Add the table scroll pane
+        centerPanel.add(tableScrollPane, BorderLayout.CENTER);
 
-            // Create a panel at the top with search field and "View invalid records" button
-            JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        // Create a panel at the top with search field and "View invalid records" button
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
 
-            // Add search label and field
-            JLabel searchLabel = new JLabel("Search:");
-            JTextField searchField = new JTextField(20);
-            searchField.getDocument().addDocumentListener(new DocumentListener() {
-                @Override
-                public void insertUpdate(DocumentEvent e) {
-                    filterTable(searchField.getText());
-                }
+        // Add search label and field
+        JLabel searchLabel = new JLabel("Search:");
+        searchField = new JTextField(20);
 
-                @Override
-                public void removeUpdate(DocumentEvent e) {
-                    filterTable(searchField.getText());
-                }
+        // Columns indexed when the file was created are searched through their index
+        List<String> searchColumns = new ArrayList<>();
+        searchColumns.add(ALL_COLUMNS);
+        if (searchDBFile != null) {
+            if (searchDBFile.hasFullText()) {
+                // Full text is the default search of files that have the index
+                searchColumns.add(0, FULL_TEXT);
+            }
+            if (searchDBFile.hasSubstringIndex()) {
+                searchColumns.add(searchColumns.indexOf(ALL_COLUMNS), CONTAINS);
+            }
+            searchColumns.addAll(searchDBFile.getIndexedColumns());
+        }
+        searchColumnComboBox = new JComboBox<>(searchColumns.toArray(new String[0]));
+        searchColumnComboBox.setToolTipText("Full text matches words by prefix, best matches first. Contains matches any part of a name. Indexed columns are matched by prefix. All columns matches the text anywhere in the names and paths");
+        searchColumnComboBox.setVisible(searchColumns.size() > 1);
+        searchColumnComboBox.addActionListener(e -> {
+            searchTimer.stop();
+            filterTable(searchField.getText());
+        });
+
+        // Typing restarts the timer, the search runs once the text stops changing
+        searchTimer = new Timer(SEARCH_DELAY_MILLIS, e -> filterTable(searchField.getText()));
+        searchTimer.setRepeats(false);
+
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
 
-                @Override
-                public void changedUpdate(DocumentEvent e) {
-                    filterTable(searchField.getText());
-                }
-            });
-
-            // Add "View invalid records" button
-            JButton viewInvalidButton = new JButton("View invalid records");
-            viewInvalidButton.addActionListener(e -> {
-                // Get the parent frame
-                JFrame parentFrame = (JFrame) SwingUtilities.getWindowAncestor(this);
-                // Open the ViewInvalidRecords dialog
-                new ViewInvalidRecords(parentFrame, selectedFile).setVisible(true);
-            });
-
-            topPanel.add(searchLabel);
-            topPanel.add(searchField);
-            topPanel.add(viewInvalidButton);
-            centerPanel.add(topPanel, BorderLayout.NORTH);
-
-            // Update the status panel
-            statusPanel.updateDbFile(selectedFile.getName());
-            statusPanel.updateTotalRows(tableModel.getRowCount());
-            statusPanel.updateVisibleRows(tableModel.getRowCount());
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
 
-            // Count and update invalid records
-            int invalidRecordsCount = LoadDBFile.countInvalidRecords(selectedFile);
-            statusPanel.updateInvalidRecords(invalidRecordsCount);
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+
+        // Add "View invalid records" button
+        JButton viewInvalidButton = new JButton("View invalid records");
+        viewInvalidButton.addActionListener(e -> {
+            // Get the parent frame
+            JFrame parentFrame = (JFrame) SwingUtilities.getWindowAncestor(this);
+            // Open the ViewInvalidRecords dialog
+            new ViewInvalidRecords(parentFrame, selectedFile).setVisible(true);
+        });
+
+        // Add "Live sync" toggle to keep the table up to date with the file system
+        JCheckBox liveSyncCheckBox = new JCheckBox("Live sync");
+        liveSyncCheckBox.setToolTipText("Watch the indexed directories and apply changes while the DB is open");
+        liveSyncCheckBox.addActionListener(e -> {
+            if (liveSyncCheckBox.isSelected()) {
+                startLiveSync(selectedFile, tableModel, liveSyncCheckBox);
+            } else {
+                stopLiveSync();
+                liveSyncCheckBox.setText("Live sync");
+            }
+        });
+
+        topPanel.add(searchLabel);
+        topPanel.add(searchField);
+        topPanel.add(searchColumnComboBox);
+        topPanel.add(viewInvalidButton);
+        topPanel.add(liveSyncCheckBox);
+        centerPanel.add(topPanel, BorderLayout.NORTH);
+
+        // Update the status panel
+        statusPanel.updateDbFile(selectedFile.getName());
+        statusPanel.updateTotalRows(tableModel.getTotalRowCount());
+        statusPanel.updateVisibleRows(tableModel.getRowCount());
+
+        // Invalid records were counted in the background
+        statusPanel.updateInvalidRecords(loaded.invalidRecords());
+
+        // Refresh the UI
+        centerPanel.revalidate();
+        centerPanel.repaint();
+    }
+
+    /**
+     * Sizes the columns to fit the header and the rows of the first page, once it has arrived.
+     * The other pages are not read for this.
+     */
+    private void sizeColumnsToFirstPage() {
+        if (columnsSized || tableModel.getRowCount() == 0) {
+            return;
+        }
+        columnsSized = true;
+
+        for (int column = 0; column < table.getColumnCount(); column++) {
+            int width = 15; // Min width
+
+            // Get width of column header
+            Object headerValue = table.getColumnModel().getColumn(column).getHeaderValue();
+            TableCellRenderer headerRenderer = table.getTableHeader().getDefaultRenderer();
+            Component headerComp = headerRenderer.getTableCellRendererComponent(
+                    table, headerValue, false, false, 0, column);
+            width = Math.max(width, headerComp.getPreferredSize().width);
+
+            // Get width of each cell in the first page, which arrives together with the first rows
+            for (int row = 0; row < Math.min(table.getRowCount(), PagedTableModel.PAGE_SIZE); row++) {
+                Object value = table.getValueAt(row, column);
+                Component comp = table.getDefaultRenderer(table.getColumnClass(column))
+                        .getTableCellRendererComponent(table, value, false, false, row, column);
+                width = Math.max(width, comp.getPreferredSize().width);
+            }
+
+            // Add some padding
+            width += 10;
+
+            // Set the width
+            table.getColumnModel().getColumn(column).setPreferredWidth(width);
+        }
+    }
+
+    /**
+     * Starts watching the indexed directories of the loaded database and applies
+     * every change to the database file, then reads the table again
+     *
+     * @param dbFile The loaded database file
+     * @param tableModel The table model showing the "valid" table
+     * @param liveSyncCheckBox The toggle, used to report a partial sync
+     */
+    private void startLiveSync(File dbFile, PagedTableModel tableModel, JCheckBox liveSyncCheckBox) {
+        liveIndexSync = new LiveIndexSync(dbFile, new LiveIndexSync.Listener() {
+            @Override
+            public void changesApplied(List<Long> addedDirIds, List<String> removedPaths) {
+                SwingUtilities.invokeLater(() -> applyLiveChanges(tableModel));
+            }
+
+            @Override
+            public void watchLimitReached(int watchedDirs) {
+                SwingUtilities.invokeLater(() -> {
+                    liveSyncCheckBox.setText("Live sync (partial)");
+                    liveSyncCheckBox.setToolTipText("The system watch limit was reached, only " + watchedDirs +
+                            " directories are being watched");
+                });
+            }
+
+            @Override
+            public void syncFailed(Exception error) {
+                SwingUtilities.invokeLater(() -> {
+                    // The sync may have been turned off or another file loaded in the meantime
+                    if (tableModel != ContentPanel.this.tableModel || !liveSyncCheckBox.isSelected()) {
+                        return;
+                    }
+                    stopLiveSync();
+                    liveSyncCheckBox.setSelected(false);
+                    liveSyncCheckBox.setText("Live sync");
+                    JOptionPane.showMessageDialog(ContentPanel.this,
+                        "Live sync stopped: " + error.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        });
+
+        try {
+            liveIndexSync.start();
+        } catch (SQLException | IOException e) {
+            liveIndexSync = null;
+            liveSyncCheckBox.setSelected(false);
+            JOptionPane.showMessageDialog(this,
+                "Error starting live sync: " + e.getMessage(),
+                "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Stops the live sync if it is running
+     */
+    private void stopLiveSync() {
+        if (liveIndexSync != null) {
+            liveIndexSync.stop();
+            liveIndexSync = null;
+        }
+    }
+
+    /**
+     * Drops a search of the previously loaded file that is still waiting for the typing to stop
+     */
+    private void stopSearchTimer() {
+        if (searchTimer != null) {
+            searchTimer.stop();
+            searchTimer = null;
+        }
+    }
 
-            // Refresh the UI
-            centerPanel.revalidate();
-            centerPanel.repaint();
+    /**
+     * Closes the connection of the previously loaded rows
+     */
+    private void closeTableModel() {
+        if (tableModel != null) {
+            tableModel.close();
+            tableModel = null;
+        }
+    }
 
-            return true;
+    /**
+     * Shows a batch of live changes, which the sync has already written to the database file
+     *
+     * @param tableModel The table model showing the "valid" table
+     */
+    private void applyLiveChanges(PagedTableModel tableModel) {
+        // A newer file may have been loaded in the meantime
+        if (tableModel != this.tableModel) {
+            return;
         }
 
-        return false;
+        tableModel.refresh();
+
+        // Rows added by the sync are only found by a search once it runs again
+        if (!searchField.getText().trim().isEmpty()) {
+            filterTable(searchField.getText());
+        }
     }
 }
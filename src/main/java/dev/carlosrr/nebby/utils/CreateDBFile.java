@@ -1,28 +1,77 @@
 package dev.carlosrr.nebby.utils;
 
-import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
-
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.Component;
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
+import java.util.Arrays;
 import java.util.List;
 
 public class CreateDBFile {
 
     /**
-     * Creates a SQLite database file with the directory information
+     * Id of the root directory a row was found under, the root's own row in the directories table
+     */
+    public static final String ROOT_ID_COLUMN = "root_id";
+
+    /**
+     * Last-modified time of the directory in milliseconds since the epoch
+     */
+    public static final String MODIFIED_COLUMN = "modified_at";
+
+    /**
+     * Creation time of the directory in milliseconds since the epoch
+     */
+    public static final String CREATED_COLUMN = "created_at";
+
+    /**
+     * Number of entries of any type directly inside the directory
+     */
+    public static final String CHILD_COUNT_COLUMN = "child_count";
+
+    /**
+     * Full-text index over the name columns of the valid table
+     */
+    public static final String FULL_TEXT_TABLE = "valid_fts";
+
+    // Prefix lengths with their own full-text index, so short prefix searches stay fast
+    private static final String FULL_TEXT_PREFIXES = "2 3";
+
+    /**
+     * Optional trigram index over the full names in the directories table, for searches of any
+     * part of a name. Full names are indexed so a search can span the parts a splitter separates.
+     */
+    public static final String SUBSTRING_TABLE = "directories_trigram";
+
+    /**
+     * Shortest search text the trigram index can answer, shorter text has no trigram to look up
+     */
+    public static final int MIN_SUBSTRING_LENGTH = 3;
+
+    // Page cache used while the file is built, negative values are in KiB (64 MiB)
+    private static final int BULK_LOAD_CACHE_SIZE = -65536;
+
+    // Suffix of the scratch file a database is built in when it is not built in memory
+    private static final String BUILDING_SUFFIX = ".building";
+
+    // Suffix of the finished copy until it replaces the target
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    /**
+     * Lets the user choose where to save a new SQLite database file.
+     * An existing file is only replaced after confirmation.
      * 
-     * @param directoryInfoList List of directory information to add to the database
      * @param parent Parent component for dialog boxes
-     * @param splitterInput String to split filename by
-     * @param columnsInput Comma-separated column names
-     * @param createSeparateTable Whether to create a separate table for invalid entries
-     * @return true if the database was created successfully, false otherwise
+     * @return The file to create, or null if the user cancelled
      */
-    public static boolean createDatabase(List<DirectoryInfo> directoryInfoList, Component parent, 
-                                        String splitterInput, String columnsInput, boolean createSeparateTable) {
+    public static File chooseDatabaseFile(Component parent) {
         // Let the user choose where to save the file
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Save SQLite Database");
@@ -30,7 +79,7 @@ public class CreateDBFile {
         fileChooser.setAcceptAllFileFilterUsed(false);
 
         if (fileChooser.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION) {
-            return false; // User cancelled
+            return null; // User cancelled
         }
 
         // Get the selected file path and ensure it has .db extension
@@ -40,48 +89,187 @@ public class CreateDBFile {
             filePath += ".db";
         }
 
-        Connection connection = null;
+        // Tables are created from scratch, so an existing file is replaced rather than appended to.
+        // It stays untouched until the new file is complete.
+        File targetFile = new File(filePath);
+        if (targetFile.exists()) {
+            int overwrite = JOptionPane.showConfirmDialog(parent,
+                "The file already exists:\n" + filePath + "\nDo you want to replace it?",
+                "Replace File",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE);
+            if (overwrite != JOptionPane.YES_OPTION) {
+                return null;
+            }
+        }
+
+        return targetFile;
+    }
+
+    /**
+     * Creates a new SQLite database with empty tables, ready for a {@link DBWriter}.
+     * <p>
+     * The database is not built in the target file but in memory or in a scratch file next to it,
+     * and {@link #finishDatabase} copies it to the target once it is complete. Until then the
+     * target is either missing or still the previous version, never a half-written file.
+     * <p>
+     * The connection is set up for bulk loading: there is no rollback journal, writes are not
+     * synced to disk and the page cache is enlarged. This is safe only because nobody else reads
+     * the database while it is built. If the build fails, it is thrown away with
+     * {@link #deleteBuildFiles} instead of being rolled back.
+     * 
+     * @param dbFile The file the database is meant for
+     * @param metadata The root directory and the options of the crawl
+     * @param inMemory Whether to build the database in memory instead of in a scratch file
+     * @return An open connection with auto-commit disabled
+     * @throws SQLException if an error occurs
+     */
+    public static Connection createDatabase(File dbFile, IndexMetadata metadata, boolean inMemory) throws SQLException {
+        // Leftovers of an earlier run that did not finish
+        deleteBuildFiles(dbFile);
+
+        // Create a connection to the database
+        Connection connection = DriverManager.getConnection(inMemory
+                ? "jdbc:sqlite::memory:"
+                : "jdbc:sqlite:" + getBuildFile(dbFile).getAbsolutePath());
 
         try {
-            // Create a connection to the database
-            connection = DriverManager.getConnection("jdbc:sqlite:" + filePath);
+            applyBulkLoadSettings(connection);
 
             // Create the tables
-            createValidTable(connection, columnsInput);
+            createValidTable(connection, metadata.getColumnsInput());
 
             // Create invalid table if needed
-            if (createSeparateTable) {
+            if (metadata.isCreateSeparateTable()) {
                 createInvalidTable(connection);
             }
 
-            // Insert directory information
-            insertDirectoryInfo(connection, directoryInfoList, splitterInput, columnsInput, createSeparateTable);
+            // Create the directory tree table, which holds the only copy of every path
+            createDirectoriesTable(connection);
+            metadata.write(connection);
+            createDirectoryPathsView(connection, metadata.getSeparator());
+
+            // Set auto-commit to false for batch operations
+            connection.setAutoCommit(false);
+            return connection;
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finishes a database once every directory has been written. {@link #saveDatabase} then
+     * writes it to the target file.
+     * 
+     * @param connection Database connection returned by {@link #createDatabase}
+     * @param metadata The options the database was created with
+     * @throws SQLException if an error occurs
+     */
+    public static void finishDatabase(Connection connection, IndexMetadata metadata) throws SQLException {
+        // Commit the inserted rows
+        connection.commit();
+
+        // Index the lookup and search columns once the data is in, so the inserts stay fast
+        createLookupIndexes(connection, metadata.isCreateSeparateTable());
+        createSearchIndexes(connection, metadata.getColumnsInput(), metadata.getIndexedColumnsInput());
+        createTimeIndexes(connection);
+        createFullTextIndex(connection, FULL_TEXT_TABLE, "valid", getNameColumns(metadata.getColumnsInput()),
+                "prefix='" + FULL_TEXT_PREFIXES + "'");
+        if (metadata.isSubstringIndex()) {
+            // Case-insensitive by default, every three characters of a name point to its rows
+            createFullTextIndex(connection, SUBSTRING_TABLE, "directories", new String[] { "name" }, "tokenize='trigram'");
+        }
+    }
+
+    /**
+     * Writes a compact copy of the database next to the target and moves it into place. The copy
+     * is synced before the move, and the move replaces the target in one step where the file
+     * system allows it, so readers see either the old file or the complete new one.
+     *
+     * @param connection Database connection returned by {@link #createDatabase}, with every change committed
+     * @param dbFile The target file
+     * @throws SQLException if the copy cannot be written or moved
+     */
+    public static void saveDatabase(Connection connection, File dbFile) throws SQLException {
+        File partialFile = getPartialFile(dbFile);
+
+        // VACUUM cannot run inside a transaction. The copy is written without the free pages and
+        // fragmentation of the build, and with the default rollback journal.
+        connection.setAutoCommit(true);
+        try (PreparedStatement statement = connection.prepareStatement("VACUUM INTO ?")) {
+            statement.setString(1, partialFile.getAbsolutePath());
+            statement.execute();
+        }
 
-            JOptionPane.showMessageDialog(parent, 
-                "Database created successfully at:\n" + filePath, 
-                "Success", 
-                JOptionPane.INFORMATION_MESSAGE);
+        try {
+            try (FileChannel channel = FileChannel.open(partialFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(partialFile.toPath(), dbFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partialFile.toPath(), dbFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not save " + dbFile + ": " + e.getMessage(), e);
+        }
+    }
 
-            return true;
+    /**
+     * Stops the statement running on a connection, for cancelling a build or a search from another
+     * thread. SQLite interrupts whatever the connection is doing, which then fails with an
+     * interrupted error. Statements started while another one is still open are interrupted too.
+     *
+     * @param connection Database connection, for example one returned by {@link #createDatabase}
+     */
+    public static void interrupt(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.cancel();
         } catch (SQLException e) {
-            JOptionPane.showMessageDialog(parent, 
-                "Error creating database: " + e.getMessage(), 
-                "Error", 
-                JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
-            return false;
-        } finally {
-            // Close the connection
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+            // The connection was closed in the meantime, nothing is running anymore
+        }
+    }
+
+    /**
+     * Deletes the scratch files of a database build, after it finished or failed. The connection
+     * returned by {@link #createDatabase} has to be closed first.
+     *
+     * @param dbFile The file the database is meant for
+     */
+    public static void deleteBuildFiles(File dbFile) {
+        for (File file : new File[] { getBuildFile(dbFile), getPartialFile(dbFile) }) {
+            if (file.exists() && !file.delete()) {
+                System.err.println("Could not delete " + file);
             }
         }
     }
 
+    private static File getBuildFile(File dbFile) {
+        return new File(dbFile.getAbsolutePath() + BUILDING_SUFFIX);
+    }
+
+    private static File getPartialFile(File dbFile) {
+        return new File(dbFile.getAbsolutePath() + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Trades durability for insert speed while a new file is built
+     *
+     * @param connection Database connection in auto-commit mode
+     * @throws SQLException if an error occurs
+     */
+    private static void applyBulkLoadSettings(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = OFF");
+            statement.execute("PRAGMA synchronous = OFF");
+            statement.execute("PRAGMA cache_size = " + BULK_LOAD_CACHE_SIZE);
+
+            // Index builds sort in memory instead of in temporary files
+            statement.execute("PRAGMA temp_store = MEMORY");
+        }
+    }
+
     /**
      * Creates the valid table in the database with dynamic columns based on user input
      * 
@@ -94,21 +282,22 @@ public class CreateDBFile {
 
         StringBuilder createTableSQL = new StringBuilder("CREATE TABLE IF NOT EXISTS valid (id INTEGER PRIMARY KEY AUTOINCREMENT");
 
-        // Add dynamic columns if provided
-        if (columnsInput != null && !columnsInput.isEmpty()) {
-            String[] columns = columnsInput.split(",");
-            for (String column : columns) {
-                if (!column.trim().isEmpty()) {
-                    createTableSQL.append(", ").append(column.trim()).append(" TEXT");
-                }
-            }
-        } else {
-            // If no custom columns, add filename column by default
-            createTableSQL.append(", filename TEXT");
+        // Link each row to its directory and to the root it was found under in the directories table
+        createTableSQL.append(", dir_id INTEGER");
+        createTableSQL.append(", ").append(ROOT_ID_COLUMN).append(" INTEGER");
+
+        // Add dynamic columns if provided, or the filename column by default
+        for (String column : getNameColumns(columnsInput)) {
+            createTableSQL.append(", ").append(column).append(" TEXT");
         }
 
-        // Add path column (always present)
-        createTableSQL.append(", path TEXT NOT NULL)");
+        // Metadata read from the same attributes as the directory listing
+        createTableSQL.append(", ").append(MODIFIED_COLUMN).append(" INTEGER");
+        createTableSQL.append(", ").append(CREATED_COLUMN).append(" INTEGER");
+        createTableSQL.append(", ").append(CHILD_COUNT_COLUMN).append(" INTEGER");
+
+        // The path is rebuilt from the directories table through dir_id
+        createTableSQL.append(")");
 
         statement.execute(createTableSQL.toString());
         statement.close();
@@ -123,125 +312,195 @@ public class CreateDBFile {
     private static void createInvalidTable(Connection connection) throws SQLException {
         Statement statement = connection.createStatement();
 
-        // Create the invalid table with id, filename, and path columns
+        // Create the invalid table with id, directory id and root id columns, the name and path come from the directories table
         String createTableSQL = "CREATE TABLE IF NOT EXISTS invalid (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "filename TEXT NOT NULL, " +
-                "path TEXT NOT NULL)";
+                "dir_id INTEGER NOT NULL, " +
+                ROOT_ID_COLUMN + " INTEGER)";
 
         statement.execute(createTableSQL);
         statement.close();
     }
 
     /**
-     * Inserts directory information into the appropriate tables based on user options
-     * 
+     * Creates the directories table, which stores the directory tree with each directory's
+     * last-modified time so that unchanged subtrees can be skipped by incremental updates.
+     * Each directory only stores its own name, the roots store their full paths and have no parent.
+     *
      * @param connection Database connection
-     * @param directoryInfoList List of directory information to insert
-     * @param splitterInput String to split filename by
-     * @param columnsInput Comma-separated column names
-     * @param createSeparateTable Whether to create a separate table for invalid entries
      * @throws SQLException if an error occurs
      */
-    private static void insertDirectoryInfo(Connection connection, List<DirectoryInfo> directoryInfoList, 
-                                           String splitterInput, String columnsInput, boolean createSeparateTable) throws SQLException {
-        // Set auto-commit to false for batch operations
-        connection.setAutoCommit(false);
+    private static void createDirectoriesTable(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
 
-        // Prepare statements for valid and invalid tables
-        PreparedStatement validStatement = null;
-        PreparedStatement invalidStatement = null;
+        String createTableSQL = "CREATE TABLE IF NOT EXISTS directories (" +
+                "id INTEGER PRIMARY KEY, " +
+                "parent_id INTEGER, " +
+                "name TEXT NOT NULL, " +
+                "mtime INTEGER NOT NULL)";
 
-        try {
-            // Get column names from columnsInput
-            String[] columnNames = (columnsInput != null && !columnsInput.isEmpty()) 
-                                  ? columnsInput.split(",") 
-                                  : new String[0];
-
-            // Build the SQL for the valid table
-            StringBuilder validInsertSQL = new StringBuilder("INSERT INTO valid (");
-            StringBuilder validPlaceholders = new StringBuilder();
-
-            // Always start with id (auto-increment)
-            validInsertSQL.append("id, ");
-            validPlaceholders.append("NULL, ");
-
-            // Add dynamic columns if provided
-            if (columnNames.length > 0) {
-                for (String column : columnNames) {
-                    if (!column.trim().isEmpty()) {
-                        validInsertSQL.append(column.trim()).append(", ");
-                        validPlaceholders.append("?, ");
-                    }
-                }
-            } else {
-                // If no custom columns, add filename column by default
-                validInsertSQL.append("filename, ");
-                validPlaceholders.append("?, ");
-            }
+        statement.execute(createTableSQL);
+        statement.close();
+    }
+
+    /**
+     * Creates the "directory_paths" view, which rebuilds the full path of every directory for
+     * tools that read the database directly. Nebby itself resolves paths with a {@link PathResolver}.
+     *
+     * @param connection Database connection
+     * @param separator The name separator of the file system
+     * @throws SQLException if an error occurs
+     */
+    private static void createDirectoryPathsView(Connection connection, String separator) throws SQLException {
+        Statement statement = connection.createStatement();
 
-            // Add path column (always present)
-            validInsertSQL.append("path) VALUES (");
-            validPlaceholders.append("?)");
+        String quotedSeparator = "'" + separator.replace("'", "''") + "'";
+        String createViewSQL = "CREATE VIEW IF NOT EXISTS directory_paths (id, path) AS " +
+                "WITH RECURSIVE tree(id, path) AS (" +
+                "SELECT id, name FROM directories WHERE parent_id IS NULL " +
+                "UNION ALL " +
+                "SELECT d.id, CASE WHEN substr(t.path, -1) = " + quotedSeparator + " THEN t.path || d.name " +
+                "ELSE t.path || " + quotedSeparator + " || d.name END " +
+                "FROM directories d JOIN tree t ON d.parent_id = t.id) " +
+                "SELECT id, path FROM tree";
+
+        statement.execute(createViewSQL);
+        statement.close();
+    }
 
-            // Combine SQL parts
-            String validSQL = validInsertSQL.toString() + validPlaceholders.toString();
-            validStatement = connection.prepareStatement(validSQL);
+    /**
+     * Creates the indexes used to find the children of a directory and the rows that belong to it
+     *
+     * @param connection Database connection
+     * @param createSeparateTable Whether the invalid table exists
+     * @throws SQLException if an error occurs
+     */
+    private static void createLookupIndexes(Connection connection, boolean createSeparateTable) throws SQLException {
+        Statement statement = connection.createStatement();
 
-            // Prepare invalid statement if needed
-            if (createSeparateTable) {
-                invalidStatement = connection.prepareStatement("INSERT INTO invalid (id, filename, path) VALUES (NULL, ?, ?)");
-            }
+        statement.execute("CREATE INDEX IF NOT EXISTS directories_parent_idx ON directories (parent_id)");
+        statement.execute("CREATE INDEX IF NOT EXISTS valid_dir_idx ON valid (dir_id)");
+        if (createSeparateTable) {
+            statement.execute("CREATE INDEX IF NOT EXISTS invalid_dir_idx ON invalid (dir_id)");
+        }
 
-            // Process each directory info
-            for (DirectoryInfo info : directoryInfoList) {
-                String filename = info.getFilename();
-                String path = info.getFullPath();
-
-                // If splitter is empty, just use the original logic
-                if (splitterInput == null || splitterInput.isEmpty() || columnNames.length == 0) {
-                    // No splitting needed, insert filename and path
-                    validStatement.setString(1, filename);
-                    validStatement.setString(2, path);
-                    validStatement.addBatch();
-                } else {
-                    // Split the filename
-                    String[] parts = filename.split(splitterInput);
-
-                    // Check if parts match column count
-                    if (parts.length == columnNames.length) {
-                        // Valid entry - add to valid table
-                        for (int i = 0; i < parts.length; i++) {
-                            validStatement.setString(i + 1, parts[i]);
-                        }
-                        validStatement.setString(parts.length + 1, path);
-                        validStatement.addBatch();
-                    } else if (createSeparateTable) {
-                        // Invalid entry - add to invalid table
-                        invalidStatement.setString(1, filename);
-                        invalidStatement.setString(2, path);
-                        invalidStatement.addBatch();
-                    }
-                    // If not createSeparateTable and parts don't match, skip this entry
-                }
-            }
+        connection.commit();
+        statement.close();
+    }
 
-            // Execute batches
-            validStatement.executeBatch();
-            if (createSeparateTable && invalidStatement != null) {
-                invalidStatement.executeBatch();
+    /**
+     * Creates a case-insensitive index on every chosen name column. Built after the bulk load, so
+     * the inserts do not have to maintain them, and usable for exact and prefix searches.
+     *
+     * @param connection Database connection
+     * @param columnsInput Comma-separated column names of the valid table
+     * @param indexedColumnsInput Comma-separated names of the columns to index
+     * @throws SQLException if an error occurs
+     */
+    private static void createSearchIndexes(Connection connection, String columnsInput, String indexedColumnsInput) throws SQLException {
+        List<String> nameColumns = Arrays.asList(getNameColumns(columnsInput));
+
+        try (Statement statement = connection.createStatement()) {
+            for (String column : parseColumnNames(indexedColumnsInput)) {
+                // Only name columns hold text worth searching
+                if (!nameColumns.contains(column)) {
+                    System.err.println("Not indexing unknown column " + column);
+                    continue;
+                }
+                statement.execute("CREATE INDEX IF NOT EXISTS " + getSearchIndexName(column) +
+                        " ON valid (" + column + " COLLATE NOCASE)");
+                connection.commit();
             }
+        }
+    }
 
-            // Commit the transaction
+    /**
+     * Creates a plain index on the modified and creation times, for sorting and filtering by
+     * recency without reading every row
+     *
+     * @param connection Database connection
+     * @throws SQLException if an error occurs
+     */
+    private static void createTimeIndexes(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE INDEX IF NOT EXISTS valid_modified_idx ON valid (" + MODIFIED_COLUMN + ")");
+            statement.execute("CREATE INDEX IF NOT EXISTS valid_created_idx ON valid (" + CREATED_COLUMN + ")");
             connection.commit();
-        } finally {
-            // Close statements
-            if (validStatement != null) {
-                validStatement.close();
-            }
-            if (invalidStatement != null) {
-                invalidStatement.close();
-            }
         }
     }
+
+    /**
+     * Creates an FTS5 index over text columns of a table. It refers to the rows of that table
+     * instead of storing a second copy of the text, and is filled in one pass once the bulk load
+     * is done. Triggers keep it up to date when incremental updates or live sync change the table
+     * later.
+     *
+     * @param connection Database connection
+     * @param table Name of the FTS5 table
+     * @param contentTable The indexed table, its id column becomes the rowid of the index
+     * @param nameColumns The indexed columns
+     * @param options Extra FTS5 options, such as the tokenizer
+     * @throws SQLException if an error occurs
+     */
+    private static void createFullTextIndex(Connection connection, String table, String contentTable, String[] nameColumns,
+                                            String options) throws SQLException {
+        String columnList = String.join(", ", nameColumns);
+        String newValues = "new." + String.join(", new.", nameColumns);
+        String oldValues = "old." + String.join(", old.", nameColumns);
+
+        String insertNew = "INSERT INTO " + table + " (rowid, " + columnList + ") VALUES (new.id, " + newValues + "); ";
+        String deleteOld = "INSERT INTO " + table + " (" + table + ", rowid, " + columnList + ") " +
+                "VALUES ('delete', old.id, " + oldValues + "); ";
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE VIRTUAL TABLE IF NOT EXISTS " + table + " USING fts5(" + columnList +
+                    ", content='" + contentTable + "', content_rowid='id', " + options + ")");
+            statement.execute("INSERT INTO " + table + " (" + table + ") VALUES ('rebuild')");
+
+            // Only changes to the names matter, the metadata columns are updated far more often
+            statement.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_insert AFTER INSERT ON " + contentTable +
+                    " BEGIN " + insertNew + "END");
+            statement.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_delete AFTER DELETE ON " + contentTable +
+                    " BEGIN " + deleteOld + "END");
+            statement.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_update AFTER UPDATE OF " + columnList +
+                    " ON " + contentTable + " BEGIN " + deleteOld + insertNew + "END");
+        }
+        connection.commit();
+    }
+
+    /**
+     * @param column A name column of the valid table
+     * @return The name of the search index on that column
+     */
+    public static String getSearchIndexName(String column) {
+        return "valid_" + column + "_search_idx";
+    }
+
+    /**
+     * Gets the columns of the valid table that hold the (split) directory name
+     *
+     * @param columnsInput Comma-separated column names
+     * @return The custom column names, or just "filename" if none were provided
+     */
+    public static String[] getNameColumns(String columnsInput) {
+        String[] columns = parseColumnNames(columnsInput);
+        return columns.length > 0 ? columns : new String[] { "filename" };
+    }
+
+    /**
+     * Splits the comma-separated column input into trimmed, non-empty column names
+     *
+     * @param columnsInput Comma-separated column names
+     * @return The column names, or an empty array if none were provided
+     */
+    static String[] parseColumnNames(String columnsInput) {
+        if (columnsInput == null || columnsInput.isEmpty()) {
+            return new String[0];
+        }
+
+        return Arrays.stream(columnsInput.split(","))
+                .map(String::trim)
+                .filter(column -> !column.isEmpty())
+                .toArray(String[]::new);
+    }
 }
@@ -0,0 +1,253 @@
+package dev.carlosrr.nebby.utils;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+import java.sql.*;
+
+/**
+ * Writes directory information into the tables of an index database.
+ * <p>
+ * Every directory gets a row in the "directories" table, which records the tree (id, parent id,
+ * name and last-modified time). This is the only place a directory's name and location are stored,
+ * full paths are rebuilt from it by a {@link PathResolver}. Every directory except the roots also
+ * gets a row in either the "valid" or the "invalid" table, depending on whether its filename
+ * fits the name columns of the {@link FilenameParser}. These rows record the id of their root, so an index
+ * of several roots can be searched as a whole or one root at a time.
+ */
+public class DBWriter implements AutoCloseable {
+
+    private final Connection connection;
+    private final FilenameParser parser;
+    private final boolean createSeparateTable;
+
+    private final PreparedStatement directoryStatement;
+    private final PreparedStatement validStatement;
+    private final PreparedStatement invalidStatement;
+
+    // Writes the parsed names straight into the valid insert, the name columns start at parameter 3
+    private final FilenameParser.ValueSink<SQLException> nameSink;
+
+    /**
+     * Prepares the insert statements for the given options
+     *
+     * @param connection Database connection, the caller is responsible for transactions
+     * @param splitterInput String to split filename by, see {@link FilenameParser}
+     * @param columnsInput Comma-separated column names
+     * @param createSeparateTable Whether to create a separate table for invalid entries
+     * @throws SQLException if an error occurs
+     * @throws IllegalArgumentException if the splitter is an invalid pattern
+     */
+    public DBWriter(Connection connection, String splitterInput, String columnsInput, boolean createSeparateTable) throws SQLException {
+        this.connection = connection;
+        this.createSeparateTable = createSeparateTable;
+        this.parser = FilenameParser.create(splitterInput, columnsInput);
+        String[] columnNames = CreateDBFile.parseColumnNames(columnsInput);
+
+        this.directoryStatement = connection.prepareStatement(
+                "INSERT INTO directories (id, parent_id, name, mtime) VALUES (?, ?, ?, ?)");
+        this.validStatement = connection.prepareStatement(buildValidInsertSQL(columnNames));
+        this.invalidStatement = createSeparateTable
+                ? connection.prepareStatement("INSERT INTO invalid (id, dir_id, " + CreateDBFile.ROOT_ID_COLUMN + ") VALUES (NULL, ?, ?)")
+                : null;
+        this.nameSink = (column, value) -> validStatement.setString(column + 3, value);
+    }
+
+    /**
+     * Builds the insert statement for the valid table
+     *
+     * @param columnNames The custom column names, or an empty array for the default filename column
+     * @return The SQL for the insert statement
+     */
+    private static String buildValidInsertSQL(String[] columnNames) {
+        StringBuilder validInsertSQL = new StringBuilder("INSERT INTO valid (");
+        StringBuilder validPlaceholders = new StringBuilder();
+
+        // Always start with id (auto-increment), the directory it belongs to and its root
+        validInsertSQL.append("id, dir_id, ").append(CreateDBFile.ROOT_ID_COLUMN).append(", ");
+        validPlaceholders.append("NULL, ?, ?, ");
+
+        // Add dynamic columns if provided
+        if (columnNames.length > 0) {
+            for (String column : columnNames) {
+                validInsertSQL.append(column).append(", ");
+                validPlaceholders.append("?, ");
+            }
+        } else {
+            // If no custom columns, add filename column by default
+            validInsertSQL.append("filename, ");
+            validPlaceholders.append("?, ");
+        }
+
+        // Add the metadata columns
+        for (String column : new String[] { CreateDBFile.MODIFIED_COLUMN, CreateDBFile.CREATED_COLUMN, CreateDBFile.CHILD_COUNT_COLUMN }) {
+            validInsertSQL.append(column).append(", ");
+            validPlaceholders.append("?, ");
+        }
+
+        // Drop the trailing separators, the path is not stored per row
+        validInsertSQL.setLength(validInsertSQL.length() - 2);
+        validPlaceholders.setLength(validPlaceholders.length() - 2);
+
+        // Combine SQL parts
+        return validInsertSQL + ") VALUES (" + validPlaceholders + ")";
+    }
+
+    /**
+     * Queues a directory for insertion into the directories table and the valid or invalid table.
+     * Root directories are only recorded in the directories table.
+     *
+     * @param info The directory to insert
+     * @throws SQLException if an error occurs
+     */
+    public void add(DirectoryInfo info) throws SQLException {
+        if (addDirectory(info)) {
+            // The parser only sets the name values when the filename fits the columns
+            addRow(info, parser.parse(info.getFilename(), nameSink));
+        }
+    }
+
+    /**
+     * Queues a directory whose name was already split on another thread, so only the values are bound
+     *
+     * @param parsed The directory to insert with its column values
+     * @throws SQLException if an error occurs
+     */
+    public void add(ParsedDirectory parsed) throws SQLException {
+        if (addDirectory(parsed.info())) {
+            String[] values = parsed.values();
+            if (values != null) {
+                for (int i = 0; i < values.length; i++) {
+                    validStatement.setString(i + 3, values[i]);
+                }
+            }
+            addRow(parsed.info(), values != null);
+        }
+    }
+
+    /**
+     * Queues the directories table row of a directory
+     *
+     * @return false for a root directory, which has no row in the valid or invalid table
+     */
+    private boolean addDirectory(DirectoryInfo info) throws SQLException {
+        directoryStatement.setLong(1, info.getId());
+        if (info.getParentId() == DirectoryInfo.NO_PARENT) {
+            directoryStatement.setNull(2, Types.INTEGER);
+        } else {
+            directoryStatement.setLong(2, info.getParentId());
+        }
+        directoryStatement.setString(3, info.getFilename());
+        directoryStatement.setLong(4, info.getLastModified());
+        directoryStatement.addBatch();
+
+        return info.getParentId() != DirectoryInfo.NO_PARENT;
+    }
+
+    /**
+     * Queues the valid or invalid table row of a directory. The name values of a valid row have
+     * to be set already.
+     */
+    private void addRow(DirectoryInfo info, boolean valid) throws SQLException {
+        if (valid) {
+            // Valid entry - add to valid table
+            validStatement.setLong(1, info.getId());
+            validStatement.setLong(2, info.getRootId());
+            setMetadata(info, parser.getColumnCount() + 3);
+            validStatement.addBatch();
+        } else if (createSeparateTable) {
+            // Invalid entry - add to invalid table
+            invalidStatement.setLong(1, info.getId());
+            invalidStatement.setLong(2, info.getRootId());
+            invalidStatement.addBatch();
+        }
+        // If not createSeparateTable and the filename doesn't fit, skip this entry
+    }
+
+    /**
+     * Sets the metadata columns of the valid insert, which follow the name columns
+     */
+    private void setMetadata(DirectoryInfo info, int firstIndex) throws SQLException {
+        validStatement.setLong(firstIndex, info.getLastModified());
+        validStatement.setLong(firstIndex + 1, info.getCreationTime());
+        validStatement.setInt(firstIndex + 2, info.getChildCount());
+    }
+
+    /**
+     * Executes every queued insert
+     *
+     * @throws SQLException if an error occurs
+     */
+    public void executeBatch() throws SQLException {
+        directoryStatement.executeBatch();
+        validStatement.executeBatch();
+        if (invalidStatement != null) {
+            invalidStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Deletes a directory and everything below it from every table
+     *
+     * @param id The id of the directory to delete
+     * @return The number of directories deleted
+     * @throws SQLException if an error occurs
+     */
+    public int deleteSubtree(long id) throws SQLException {
+        String subtree = "WITH RECURSIVE subtree(id) AS (" +
+                "SELECT ? UNION ALL SELECT d.id FROM directories d JOIN subtree s ON d.parent_id = s.id) " +
+                "SELECT id FROM subtree";
+
+        try (PreparedStatement deleteValid = connection.prepareStatement(
+                "DELETE FROM valid WHERE dir_id IN (" + subtree + ")")) {
+            deleteValid.setLong(1, id);
+            deleteValid.executeUpdate();
+        }
+
+        if (createSeparateTable) {
+            try (PreparedStatement deleteInvalid = connection.prepareStatement(
+                    "DELETE FROM invalid WHERE dir_id IN (" + subtree + ")")) {
+                deleteInvalid.setLong(1, id);
+                deleteInvalid.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement deleteDirectories = connection.prepareStatement(
+                "DELETE FROM directories WHERE id IN (" + subtree + ")")) {
+            deleteDirectories.setLong(1, id);
+            return deleteDirectories.executeUpdate();
+        }
+    }
+
+    /**
+     * Records the state of a directory that was listed again
+     *
+     * @param id The id of the directory
+     * @param lastModified The new last-modified time in milliseconds
+     * @param childCount The new number of entries directly inside the directory
+     * @throws SQLException if an error occurs
+     */
+    public void updateDirectory(long id, long lastModified, int childCount) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE directories SET mtime = ? WHERE id = ?")) {
+            statement.setLong(1, lastModified);
+            statement.setLong(2, id);
+            statement.executeUpdate();
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE valid SET " + CreateDBFile.MODIFIED_COLUMN + " = ?, " + CreateDBFile.CHILD_COUNT_COLUMN + " = ? WHERE dir_id = ?")) {
+            statement.setLong(1, lastModified);
+            statement.setInt(2, childCount);
+            statement.setLong(3, id);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        directoryStatement.close();
+        validStatement.close();
+        if (invalidStatement != null) {
+            invalidStatement.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package dev.carlosrr.nebby.utils;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Splits a directory name into the values of the name columns of the valid table.
+ * <p>
+ * The splitter the index was created with picks the parser. An empty splitter keeps the whole
+ * name in one column, a splitter starting with {@value #REGEX_PREFIX} is a regular expression
+ * with one named group per column, and anything else is a literal delimiter of any length.
+ * Parsers check whether a name fits before handing out any value, and hand values to a sink
+ * instead of building an array per name. A parser keeps matching state between names, so each
+ * thread that parses needs its own.
+ */
+public abstract class FilenameParser {
+
+    /**
+     * Marks a splitter as a regular expression, for example {@code regex:(?<client>[A-Z]+)-(?<job>\d+)}
+     */
+    public static final String REGEX_PREFIX = "regex:";
+
+    /**
+     * Receives the value of each column of a name that fits
+     *
+     * @param <E> The exception the sink may throw, such as an {@link SQLException} when binding
+     */
+    @FunctionalInterface
+    public interface ValueSink<E extends Exception> {
+        /**
+         * @param column The 0-based index of the column
+         * @param value The value, null if an optional regex group did not take part in the match
+         * @throws E if the value cannot be taken
+         */
+        void accept(int column, String value) throws E;
+    }
+
+    private final int columnCount;
+
+    private FilenameParser(int columnCount) {
+        this.columnCount = columnCount;
+    }
+
+    /**
+     * Creates the parser for the options of an index. Regular expressions are compiled here, once
+     * per job, and rejected if they lack a group for one of the columns.
+     *
+     * @param splitterInput The splitter, empty to keep the whole name
+     * @param columnsInput Comma-separated column names
+     * @return The parser
+     * @throws IllegalArgumentException if the regular expression is invalid or misses a column
+     */
+    public static FilenameParser create(String splitterInput, String columnsInput) {
+        String[] columnNames = CreateDBFile.parseColumnNames(columnsInput);
+
+        if (splitterInput == null || splitterInput.isEmpty() || columnNames.length == 0) {
+            return new WholeNameParser(Math.max(columnNames.length, 1));
+        }
+        if (splitterInput.startsWith(REGEX_PREFIX)) {
+            return new RegexParser(splitterInput.substring(REGEX_PREFIX.length()), columnNames);
+        }
+        return new DelimiterParser(splitterInput, columnNames.length);
+    }
+
+    /**
+     * @return The number of name columns the parser fills
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Splits a name into its column values
+     *
+     * @param filename The directory name
+     * @param sink Receives every column value, only if the name fits
+     * @return true if the name fits the columns, false if it belongs in the invalid table
+     * @throws E if the sink fails
+     */
+    public abstract <E extends Exception> boolean parse(String filename, ValueSink<E> sink) throws E;
+
+    /**
+     * Splits a name into a new array of column values, for handing the result to another thread
+     *
+     * @param filename The directory name
+     * @return The value of every column, or null if the name does not fit the columns
+     */
+    public String[] split(String filename) {
+        String[] values = new String[columnCount];
+        return parse(filename, (ValueSink<RuntimeException>) (column, value) -> values[column] = value) ? values : null;
+    }
+
+    /**
+     * Keeps the whole name in the first column
+     */
+    private static final class WholeNameParser extends FilenameParser {
+
+        private WholeNameParser(int columnCount) {
+            super(columnCount);
+        }
+
+        @Override
+        public <E extends Exception> boolean parse(String filename, ValueSink<E> sink) throws E {
+            sink.accept(0, filename);
+            for (int column = 1; column < getColumnCount(); column++) {
+                sink.accept(column, null);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Splits on every occurrence of a literal delimiter. A name fits if it has exactly one part
+     * per column, empty parts included.
+     */
+    private static final class DelimiterParser extends FilenameParser {
+
+        private final String delimiter;
+
+        private DelimiterParser(String delimiter, int columnCount) {
+            super(columnCount);
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        public <E extends Exception> boolean parse(String filename, ValueSink<E> sink) throws E {
+            // Count the parts first, so a name that does not fit costs one scan and nothing else
+            int parts = 1;
+            for (int i = filename.indexOf(delimiter); i >= 0; i = filename.indexOf(delimiter, i + delimiter.length())) {
+                if (++parts > getColumnCount()) {
+                    return false;
+                }
+            }
+            if (parts != getColumnCount()) {
+                return false;
+            }
+
+            int start = 0;
+            for (int column = 0; column < getColumnCount() - 1; column++) {
+                int end = filename.indexOf(delimiter, start);
+                sink.accept(column, filename.substring(start, end));
+                start = end + delimiter.length();
+            }
+            sink.accept(getColumnCount() - 1, filename.substring(start));
+            return true;
+        }
+    }
+
+    /**
+     * Matches the whole name against a regular expression and reads each column from the group
+     * with the same name
+     */
+    private static final class RegexParser extends FilenameParser {
+
+        private final Matcher matcher;
+        private final int[] groups;
+
+        private RegexParser(String regex, String[] columnNames) {
+            super(columnNames.length);
+
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid splitter pattern: " + e.getDescription(), e);
+            }
+
+            // Resolve the group of every column once instead of by name for every directory
+            Map<String, Integer> namedGroups = pattern.namedGroups();
+            groups = new int[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                Integer group = namedGroups.get(columnNames[i]);
+                if (group == null) {
+                    throw new IllegalArgumentException("Splitter pattern has no group named " + columnNames[i]);
+                }
+                groups[i] = group;
+            }
+
+            this.matcher = pattern.matcher("");
+        }
+
+        @Override
+        public <E extends Exception> boolean parse(String filename, ValueSink<E> sink) throws E {
+            if (!matcher.reset(filename).matches()) {
+                return false;
+            }
+            for (int column = 0; column < groups.length; column++) {
+                sink.accept(column, matcher.group(groups[column]));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package dev.carlosrr.nebby.utils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The options an index was created with, stored in the "nebby_meta" table of the database.
+ * <p>
+ * Incremental updates read these back so new directories are split and routed exactly
+ * like the ones written by the original crawl.
+ */
+public class IndexMetadata {
+
+    /**
+     * Version of the database layout written by this version of Nebby
+     */
+    public static final int SCHEMA_VERSION = 4;
+
+    // First version that rebuilds paths from the directories table instead of storing them per row
+    private static final int NORMALIZED_PATHS_VERSION = 2;
+
+    // First version with several roots and the root_id column, which updates write
+    private static final int MULTI_ROOT_VERSION = 4;
+
+    private static final String ROOT_KEY = "root";
+    private static final String SPLITTER_KEY = "splitter";
+    private static final String COLUMNS_KEY = "columns";
+    private static final String SEPARATE_TABLE_KEY = "separate_table";
+    private static final String INDEXED_COLUMNS_KEY = "indexed_columns";
+    private static final String SUBSTRING_INDEX_KEY = "substring_index";
+    private static final String SCHEMA_VERSION_KEY = "schema_version";
+    private static final String SEPARATOR_KEY = "separator";
+    private static final String FOLLOW_LINKS_KEY = "follow_links";
+    private static final String SAME_FILE_SYSTEM_KEY = "same_file_system";
+
+    private final String rootPath;
+    private final String splitterInput;
+    private final String columnsInput;
+    private final boolean createSeparateTable;
+    private final String indexedColumnsInput;
+    private final boolean substringIndex;
+    private final boolean followLinks;
+    private final boolean sameFileSystem;
+    private final String separator;
+    private final int schemaVersion;
+
+    public IndexMetadata(String rootPath, String splitterInput, String columnsInput, boolean createSeparateTable,
+                         String indexedColumnsInput, boolean substringIndex, boolean followLinks, boolean sameFileSystem) {
+        this(rootPath, splitterInput, columnsInput, createSeparateTable, indexedColumnsInput, substringIndex, followLinks,
+                sameFileSystem, File.separator, SCHEMA_VERSION);
+    }
+
+    private IndexMetadata(String rootPath, String splitterInput, String columnsInput, boolean createSeparateTable,
+                          String indexedColumnsInput, boolean substringIndex, boolean followLinks, boolean sameFileSystem,
+                          String separator, int schemaVersion) {
+        this.rootPath = rootPath;
+        this.splitterInput = splitterInput;
+        this.columnsInput = columnsInput;
+        this.createSeparateTable = createSeparateTable;
+        this.indexedColumnsInput = indexedColumnsInput;
+        this.substringIndex = substringIndex;
+        this.followLinks = followLinks;
+        this.sameFileSystem = sameFileSystem;
+        this.separator = separator;
+        this.schemaVersion = schemaVersion;
+    }
+
+    /**
+     * Creates the metadata table and writes these options into it
+     *
+     * @param connection Database connection
+     * @throws SQLException if an error occurs
+     */
+    public void write(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS nebby_meta (key TEXT PRIMARY KEY, value TEXT)");
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT OR REPLACE INTO nebby_meta (key, value) VALUES (?, ?)")) {
+            addEntry(statement, ROOT_KEY, rootPath);
+            addEntry(statement, SPLITTER_KEY, splitterInput != null ? splitterInput : "");
+            addEntry(statement, COLUMNS_KEY, columnsInput != null ? columnsInput : "");
+            addEntry(statement, SEPARATE_TABLE_KEY, Boolean.toString(createSeparateTable));
+            addEntry(statement, INDEXED_COLUMNS_KEY, indexedColumnsInput != null ? indexedColumnsInput : "");
+            addEntry(statement, SUBSTRING_INDEX_KEY, Boolean.toString(substringIndex));
+            addEntry(statement, FOLLOW_LINKS_KEY, Boolean.toString(followLinks));
+            addEntry(statement, SAME_FILE_SYSTEM_KEY, Boolean.toString(sameFileSystem));
+            addEntry(statement, SCHEMA_VERSION_KEY, Integer.toString(schemaVersion));
+            addEntry(statement, SEPARATOR_KEY, separator);
+            statement.executeBatch();
+        }
+    }
+
+    private static void addEntry(PreparedStatement statement, String key, String value) throws SQLException {
+        statement.setString(1, key);
+        statement.setString(2, value);
+        statement.addBatch();
+    }
+
+    /**
+     * Reads the options an index was created with
+     *
+     * @param connection Database connection
+     * @return The metadata, or null if the database was created by an older version of Nebby
+     * @throws SQLException if an error occurs
+     */
+    public static IndexMetadata read(Connection connection) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(null, null, "nebby_meta", null)) {
+            if (!tables.next()) {
+                return null;
+            }
+        }
+
+        String rootPath = null;
+        String splitterInput = "";
+        String columnsInput = "";
+        boolean createSeparateTable = false;
+        String indexedColumnsInput = "";
+        boolean substringIndex = false;
+        boolean followLinks = false;
+        boolean sameFileSystem = false;
+        String separator = File.separator;
+        int schemaVersion = 1;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT key, value FROM nebby_meta")) {
+            while (resultSet.next()) {
+                String value = resultSet.getString(2);
+                switch (resultSet.getString(1)) {
+                    case ROOT_KEY -> rootPath = value;
+                    case SPLITTER_KEY -> splitterInput = value;
+                    case COLUMNS_KEY -> columnsInput = value;
+                    case SEPARATE_TABLE_KEY -> createSeparateTable = Boolean.parseBoolean(value);
+                    case INDEXED_COLUMNS_KEY -> indexedColumnsInput = value;
+                    case SUBSTRING_INDEX_KEY -> substringIndex = Boolean.parseBoolean(value);
+                    case FOLLOW_LINKS_KEY -> followLinks = Boolean.parseBoolean(value);
+                    case SAME_FILE_SYSTEM_KEY -> sameFileSystem = Boolean.parseBoolean(value);
+                    case SEPARATOR_KEY -> separator = value;
+                    case SCHEMA_VERSION_KEY -> schemaVersion = Integer.parseInt(value);
+                    default -> {
+                        // Unknown keys are ignored
+                    }
+                }
+            }
+        }
+
+        return rootPath != null
+                ? new IndexMetadata(rootPath, splitterInput, columnsInput, createSeparateTable, indexedColumnsInput,
+                        substringIndex, followLinks, sameFileSystem, separator, schemaVersion)
+                : null;
+    }
+
+    /**
+     * @return The first root directory, every root is listed by {@link #readRoots}
+     */
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public String getSplitterInput() {
+        return splitterInput;
+    }
+
+    public String getColumnsInput() {
+        return columnsInput;
+    }
+
+    public boolean isCreateSeparateTable() {
+        return createSeparateTable;
+    }
+
+    /**
+     * @return Comma-separated names of the columns that have a search index, empty if none
+     */
+    public String getIndexedColumnsInput() {
+        return indexedColumnsInput;
+    }
+
+    /**
+     * @return Whether a trigram index for searching any part of a name was built
+     */
+    public boolean isSubstringIndex() {
+        return substringIndex;
+    }
+
+    /**
+     * @return Whether the crawl descended into symbolic links
+     */
+    public boolean isFollowLinks() {
+        return followLinks;
+    }
+
+    /**
+     * @return Whether the crawl stayed on the file system of the root
+     */
+    public boolean isSameFileSystem() {
+        return sameFileSystem;
+    }
+
+    /**
+     * @return The name separator of the file system the index was created on
+     */
+    public String getSeparator() {
+        return separator;
+    }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    /**
+     * Checks whether a database stores paths only in the "directories" table. Older databases
+     * store the full path of every row in a "path" column instead.
+     *
+     * @param metadata The metadata of the database, or null if it has none
+     * @return true if paths have to be rebuilt from the directory tree
+     */
+    public static boolean hasNormalizedPaths(IndexMetadata metadata) {
+        return metadata != null && metadata.getSchemaVersion() >= NORMALIZED_PATHS_VERSION;
+    }
+
+    /**
+     * Checks whether a database has the layout written by this version, which is required for
+     * incremental updates and live sync
+     *
+     * @param metadata The metadata of the database, or null if it has none
+     * @return true if rows can be added to the database
+     */
+    public static boolean supportsUpdates(IndexMetadata metadata) {
+        return metadata != null && metadata.getSchemaVersion() >= MULTI_ROOT_VERSION;
+    }
+
+    /**
+     * Reads the root directories of an index, which are the directories without a parent
+     *
+     * @param connection Database connection
+     * @return The full path of every root by its id, in the order they were given
+     * @throws SQLException if an error occurs
+     */
+    public static Map<Long, Path> readRoots(Connection connection) throws SQLException {
+        Map<Long, Path> roots = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id, name FROM directories WHERE parent_id IS NULL ORDER BY id")) {
+            while (resultSet.next()) {
+                roots.put(resultSet.getLong(1), Paths.get(resultSet.getString(2)));
+            }
+        }
+        return roots;
+    }
+}
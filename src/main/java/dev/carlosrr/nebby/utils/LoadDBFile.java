@@ -1,22 +1,42 @@
 package dev.carlosrr.nebby.utils;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.io.File;
 import java.sql.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
 public class LoadDBFile {
 
+    // Times are shown as sortable text in the local time zone
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    /**
+     * Name of the column that holds the full path, always the last column of the table model
+     */
+    public static final String PATH_COLUMN = "path";
+
+    /**
+     * Name of the column that holds the row id, always the first column of the table model.
+     * It identifies rows for searches and is not meant to be shown.
+     */
+    public static final String ID_COLUMN = "id";
+
     /**
-     * Opens a file chooser dialog to select an SQLite database file,
-     * then loads the "valid" table from that database.
+     * Opens a file chooser dialog to select an SQLite database file
      * 
      * @param parent The parent component for the file chooser dialog
-     * @return An Object array containing the selected File and DefaultTableModel with data from the "valid" table
+     * @return The selected file, or null if the dialog was cancelled
      */
-    public static Object[] loadDatabaseFile(Component parent) {
+    public static File chooseDatabaseFile(Component parent) {
         // Create a file chooser
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Select SQLite Database File");
@@ -27,94 +47,114 @@ public class LoadDBFile {
 
         // If the user selected a file
         if (result == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
-            DefaultTableModel tableModel = loadDataFromFile(selectedFile);
-            if (tableModel != null) {
-                return new Object[] { selectedFile, tableModel };
-            }
+            return fileChooser.getSelectedFile();
         }
 
         return null;
     }
 
     /**
-     * Loads a specific database file without showing a file chooser dialog.
+     * Opens the "valid" table in the specified SQLite database file. Only the columns are read
+     * here, the rows are read in the background and arrive in the model in chunks, so this may be
+     * called on any thread. The connection stays open until the model is closed.
      * 
-     * @param dbFile The database file to load
-     * @return An Object array containing the File and DefaultTableModel with data from the "valid" table, or null if loading fails
+     * @param dbFile The SQLite database file
+     * @return A PagedTableModel over the "valid" table, with the row id first and the path last
+     * @throws SQLException if the file cannot be opened
      */
-    public static Object[] loadSpecificDatabaseFile(File dbFile) {
-        DefaultTableModel tableModel = loadDataFromFile(dbFile);
-        if (tableModel != null) {
-            return new Object[] { dbFile, tableModel };
+    public static PagedTableModel openDatabaseFile(File dbFile) throws SQLException {
+        // Connect to the database
+        String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+        Connection connection = DriverManager.getConnection(url);
+
+        try {
+            return new PagedTableModel(connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
         }
-        return null;
     }
 
     /**
-     * Loads data from the "valid" table in the specified SQLite database file.
-     * 
-     * @param dbFile The SQLite database file
-     * @return A DefaultTableModel containing the data from the "valid" table (excluding the id column)
+     * Creates a resolver for the full paths of a database that does not store them per row
+     *
+     * @param connection Database connection
+     * @return The resolver, or null if the rows already contain their path
+     * @throws SQLException if an error occurs
      */
-    private static DefaultTableModel loadDataFromFile(File dbFile) {
-        DefaultTableModel tableModel = null;
-
-        try {
-            // Connect to the database
-            String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
-            Connection connection = DriverManager.getConnection(url);
-
-            // Create a statement
-            Statement statement = connection.createStatement();
-
-            // Execute a query to get data from the "valid" table
-            ResultSet resultSet = statement.executeQuery("SELECT * FROM valid");
-
-            // Get metadata about the result set
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            // Create vectors for column names and data
-            Vector<String> columnNames = new Vector<>();
+    public static PathResolver createPathResolver(Connection connection) throws SQLException {
+        IndexMetadata metadata = IndexMetadata.read(connection);
+        return IndexMetadata.hasNormalizedPaths(metadata) ? new PathResolver(connection, metadata.getSeparator()) : null;
+    }
 
-            // Add column names (excluding the id column which is the first column)
-            for (int i = 2; i <= columnCount; i++) {
-                columnNames.add(metaData.getColumnName(i));
+    /**
+     * Finds the columns of a "valid" table query that are shown to the user
+     *
+     * @param metaData Metadata of the query
+     * @return The 1-based indexes of every column except the internal id, dir_id and root_id columns
+     * @throws SQLException if an error occurs
+     */
+    static List<Integer> getDisplayedColumns(ResultSetMetaData metaData) throws SQLException {
+        List<Integer> displayedColumns = new ArrayList<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String columnName = metaData.getColumnName(i);
+            if (!columnName.equalsIgnoreCase("id") && !columnName.equalsIgnoreCase("dir_id")
+                    && !columnName.equalsIgnoreCase(CreateDBFile.ROOT_ID_COLUMN)) {
+                displayedColumns.add(i);
             }
+        }
+        return displayedColumns;
+    }
 
-            // Create a vector for the data
-            Vector<Vector<Object>> data = new Vector<>();
-
-            // Add data rows
-            while (resultSet.next()) {
-                Vector<Object> row = new Vector<>();
-
-                // Add each column value (excluding the id column)
-                for (int i = 2; i <= columnCount; i++) {
-                    row.add(resultSet.getObject(i));
-                }
-
-                data.add(row);
+    /**
+     * Finds the metadata columns that hold times
+     *
+     * @param metaData Metadata of the query
+     * @return The 1-based indexes of the modified and created columns
+     * @throws SQLException if an error occurs
+     */
+    static Set<Integer> getTimestampColumns(ResultSetMetaData metaData) throws SQLException {
+        Set<Integer> timestampColumns = new HashSet<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String columnName = metaData.getColumnName(i);
+            if (columnName.equalsIgnoreCase(CreateDBFile.MODIFIED_COLUMN) || columnName.equalsIgnoreCase(CreateDBFile.CREATED_COLUMN)) {
+                timestampColumns.add(i);
             }
+        }
+        return timestampColumns;
+    }
 
-            // Create the table model
-            tableModel = new DefaultTableModel(data, columnNames);
-
-            // Close resources
-            resultSet.close();
-            statement.close();
-            connection.close();
+    /**
+     * Reads the displayed columns of the current row
+     *
+     * @param resultSet The result set positioned on a row
+     * @param displayedColumns The 1-based indexes of the columns to read
+     * @param timestampColumns The 1-based indexes of the columns that hold times in milliseconds
+     * @param pathResolver Resolver for the path column, or null if the row contains its path
+     * @return The row values
+     * @throws SQLException if an error occurs
+     */
+    static Vector<Object> readRow(ResultSet resultSet, List<Integer> displayedColumns, Set<Integer> timestampColumns,
+                                  PathResolver pathResolver) throws SQLException {
+        Vector<Object> row = new Vector<>();
+        row.add(resultSet.getLong(ID_COLUMN));
+
+        // Add each displayed column value
+        for (int i : displayedColumns) {
+            if (timestampColumns.contains(i)) {
+                long millis = resultSet.getLong(i);
+                row.add(millis > 0 ? TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(millis)) : null);
+            } else {
+                row.add(resultSet.getObject(i));
+            }
+        }
 
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(null, 
-                "Error loading database: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
+        // The path is always the last column
+        if (pathResolver != null) {
+            row.add(pathResolver.resolve(resultSet.getLong("dir_id")));
         }
 
-        return tableModel;
+        return row;
     }
 
     /**
@@ -0,0 +1,118 @@
+package dev.carlosrr.nebby.utils;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.List;
+
+/**
+ * Lets a {@link PagedTableModel} be sorted by clicking the table header. The database sorts the
+ * rows in the background, so view and model rows are the same and nothing is read to sort them.
+ */
+public class PagedRowSorter extends RowSorter<PagedTableModel> {
+
+    private final PagedTableModel model;
+
+    /**
+     * @param model The model to sort
+     */
+    public PagedRowSorter(PagedTableModel model) {
+        this.model = model;
+    }
+
+    @Override
+    public PagedTableModel getModel() {
+        return model;
+    }
+
+    /**
+     * Sorts ascending by a column, or reverses the sort if the rows are already sorted by it
+     *
+     * @param column The model column
+     */
+    @Override
+    public void toggleSortOrder(int column) {
+        if (!model.isSortable(column)) {
+            return;
+        }
+        SortOrder order = model.getSortColumn() == column && model.getSortOrder() == SortOrder.ASCENDING
+                ? SortOrder.DESCENDING : SortOrder.ASCENDING;
+        setSortKeys(List.of(new SortKey(column, order)));
+    }
+
+    /**
+     * Sorts by the first key only, the database always breaks ties by the row id
+     *
+     * @param keys The sort keys, null or empty for the order of the ids or of the search rank
+     */
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        if (keys == null || keys.isEmpty()) {
+            model.sort(0, SortOrder.ASCENDING);
+        } else {
+            model.sort(keys.get(0).getColumn(), keys.get(0).getSortOrder());
+        }
+        fireSortOrderChanged();
+    }
+
+    /**
+     * @return The column the rows are sorted by, empty if they are in the order of the ids or of
+     *         the search rank
+     */
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return model.getSortColumn() == 0 ? List.of() : List.of(new SortKey(model.getSortColumn(), model.getSortOrder()));
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        return index;
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        return index;
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+        // The columns never change
+    }
+
+    /**
+     * Called when the model read its rows again, for example after a search reset the sort
+     */
+    @Override
+    public void allRowsChanged() {
+        fireSortOrderChanged();
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        // Rows are already in the order of the database
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        // Rows are already in the order of the database
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        // Rows are already in the order of the database
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        // Rows are already in the order of the database
+    }
+}
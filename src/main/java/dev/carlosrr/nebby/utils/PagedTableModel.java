@@ -0,0 +1,737 @@
+package dev.carlosrr.nebby.utils;
+
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Table model that reads the "valid" table of an index page by page instead of loading every row.
+ * <p>
+ * Loading only reads the sort key of every row, in order, and remembers the key at the start of
+ * each page. A page is then read with a keyset query that starts at that key, which costs the
+ * same anywhere in the table, unlike an OFFSET. The most recently used pages are kept in an LRU
+ * cache, so memory stays bounded however far the table is scrolled. Sorting and searching are
+ * done by the database for the same reason: both would otherwise read every row. A search is
+ * written into a temporary table by a single INSERT ... SELECT, which the pages are joined with,
+ * so its results never pass through Java.
+ * <p>
+ * The database is only used by a background thread. The keys are read in chunks and the rows
+ * appear in the table as each chunk arrives, starting with the first page, so the top of the
+ * table shows up right away while the rest is still being counted. A page that has not been read
+ * yet shows empty cells until it arrives. Whatever the thread is still doing for an older search
+ * or sort is interrupted as soon as a new one is asked for, so typing never waits for a search
+ * that is no longer wanted.
+ * <p>
+ * Every chunk is a keyset query of its own that starts after the last row of the one before, and
+ * it is closed before the next one is queued. No read stays open between chunks, so the
+ * connections that update the file are never locked out for long. Sorted search results and
+ * columns without a matching index (case-insensitive for names, plain for times) have no index to
+ * read in order, and every chunk would sort the whole table again. Their keys are first copied into a temporary table in short steps
+ * and indexed there.
+ * <p>
+ * The columns are laid out like the old in-memory model: the row id first, then the displayed
+ * columns, then the path. Apart from the constructor, the model has to be used on the event
+ * dispatch thread.
+ */
+public final class PagedTableModel extends AbstractTableModel implements AutoCloseable {
+
+    /**
+     * Number of rows read by one query
+     */
+    public static final int PAGE_SIZE = 256;
+
+    // Number of pages kept in memory, enough for several screens in both directions
+    private static final int CACHE_PAGES = 64;
+
+    // Number of pages located per chunk, page reads for the table run in between chunks
+    private static final int PAGES_PER_CHUNK = 64;
+
+    // Number of rows read by one query of the scan, and copied by one step into the key table
+    private static final int CHUNK_ROWS = PAGES_PER_CHUNK * PAGE_SIZE;
+
+    // Temporary table holding the ids of the rows found by the current search and their rank
+    private static final String FILTER_TABLE = "temp.nebby_filter";
+
+    // Temporary table holding the sort key of every row of a load that has no index to sort by
+    private static final String KEY_TABLE = "temp.nebby_keys";
+
+    /**
+     * The query behind a load: how the rows are ordered and which table they come from
+     *
+     * @param id Increases with every load, so results of an older one can be told apart
+     * @param sortKey The SQL expression sorted by before the row id, or null to sort by id only
+     * @param ascending The direction of the sort
+     * @param filtered Whether only the rows in the filter table are shown
+     * @param countTotal Whether the rows of the whole table have to be counted again
+     * @param keyed Whether the sort keys are copied into the key table and read from there
+     */
+    private record Load(int id, String sortKey, boolean ascending, boolean filtered, boolean countTotal, boolean keyed) {
+
+        String from() {
+            // The key table is read first, in the order of its index
+            return keyed ? " FROM " + KEY_TABLE + " k CROSS JOIN valid v ON v.id = k.id" : baseFrom();
+        }
+
+        /**
+         * @return What the keys are read from, the key table alone when there is one
+         */
+        String scanFrom() {
+            return keyed ? " FROM " + KEY_TABLE + " k" : baseFrom();
+        }
+
+        /**
+         * @return The rows of the load, before any key table
+         */
+        String baseFrom() {
+            // CROSS JOIN reads the search results first, SQLite would otherwise read every row of
+            // the table and look each one up in the filter
+            return filtered ? " FROM " + FILTER_TABLE + " f CROSS JOIN valid v ON v.id = f.id" : " FROM valid v";
+        }
+
+        /**
+         * @return The row id of the table read first, so ordering by it needs no sort
+         */
+        String idColumn() {
+            return keyed ? "k.id" : baseIdColumn();
+        }
+
+        String baseIdColumn() {
+            return filtered ? "f.id" : "v.id";
+        }
+
+        /**
+         * @return The sort key as it is read by the page queries, or null to sort by id only
+         */
+        String key() {
+            return keyed ? "k.key" : sortKey;
+        }
+
+        String orderBy() {
+            String direction = ascending ? "ASC" : "DESC";
+            return " ORDER BY " + (key() != null ? key() + " " + direction + ", " : "") + idColumn() + " " + direction;
+        }
+    }
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nebby-rows");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Used on the loader thread only
+    private final Connection connection;
+    private final PathResolver pathResolver;
+    private int startedLoad;
+
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<Integer> displayedColumns;
+    private final Set<Integer> timestampColumns;
+    private final int childCountColumn;
+    private final boolean pathIsResolved;
+
+    // Columns that are the first column of an index sorted like their sort key, they can be
+    // sorted by without a key table
+    private final Set<String> indexedColumns = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    // The sort key and row id at the start of each page of the load that is shown
+    private final List<Object> pageKeys = new ArrayList<>();
+    private final List<Long> pageIds = new ArrayList<>();
+    private final Set<Integer> requestedPages = new HashSet<>();
+
+    private final Map<Integer, List<Vector<Object>>> pages = new LinkedHashMap<>(CACHE_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Vector<Object>>> eldest) {
+            return size() > CACHE_PAGES;
+        }
+    };
+
+    // Read by the loader thread to give up on chunks nobody is waiting for
+    private volatile int latestLoad;
+
+    private Load shownLoad;
+    private boolean closed;
+    private int rowCount;
+    private int totalRowCount;
+    private boolean filtered;
+    private boolean ranked;
+    private int sortColumn;
+    private SortOrder sortOrder = SortOrder.ASCENDING;
+
+    /**
+     * Opens the "valid" table of a database and starts reading where each page starts. This reads
+     * the columns of the table only, so it may be called on any thread.
+     *
+     * @param connection Database connection, closed together with the model
+     * @throws SQLException if an error occurs
+     */
+    public PagedTableModel(Connection connection) throws SQLException {
+        this.connection = connection;
+
+        // Older databases store the path in every row, newer ones rebuild it from the directory tree
+        this.pathResolver = LoadDBFile.createPathResolver(connection);
+        this.pathIsResolved = pathResolver != null;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM valid LIMIT 0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            displayedColumns = LoadDBFile.getDisplayedColumns(metaData);
+            timestampColumns = LoadDBFile.getTimestampColumns(metaData);
+
+            // The row id comes first, then the displayed columns (excluding the internal id columns)
+            columnNames.add(LoadDBFile.ID_COLUMN);
+            for (int i : displayedColumns) {
+                columnNames.add(metaData.getColumnName(i));
+            }
+            if (pathIsResolved) {
+                columnNames.add(LoadDBFile.PATH_COLUMN);
+            }
+        }
+        childCountColumn = columnNames.indexOf(CreateDBFile.CHILD_COUNT_COLUMN);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + FILTER_TABLE + " (id INTEGER PRIMARY KEY, rank REAL)");
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT ii.name, ii.coll FROM pragma_index_list('valid') il, " +
+                     "pragma_index_xinfo(il.name) ii WHERE ii.seqno = 0 AND ii.name IS NOT NULL")) {
+            while (resultSet.next()) {
+                String column = resultSet.getString(1);
+                String collation = isIntegerColumn(column) ? "BINARY" : "NOCASE";
+                if (collation.equalsIgnoreCase(resultSet.getString(2))) {
+                    indexedColumns.add(column);
+                }
+            }
+        }
+
+        shownLoad = new Load(0, null, true, false, false, false);
+        reload(false, null);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of rows in the "valid" table, whether or not they match the current
+     *         search. It grows while the rows are still being counted.
+     */
+    public int getTotalRowCount() {
+        return totalRowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.size();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames.get(column);
+    }
+
+    /**
+     * The row id is a number and the child count is reported as one so that it sorts numerically
+     */
+    @Override
+    public Class<?> getColumnClass(int column) {
+        if (column == 0) {
+            return Long.class;
+        }
+        return column == childCountColumn ? Integer.class : Object.class;
+    }
+
+    /**
+     * Returns a value of a page that has been read, or null while the page is read in the
+     * background. The table is told to repaint the rows once it arrives.
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        int page = row / PAGE_SIZE;
+        List<Vector<Object>> rows = pages.get(page);
+        if (rows == null) {
+            requestPage(page);
+            return null;
+        }
+
+        // Rows removed since the pages were located leave the last page short
+        int index = row % PAGE_SIZE;
+        return index < rows.size() ? rows.get(index).get(column) : null;
+    }
+
+    /**
+     * @param column The model column
+     * @return Whether the database can sort by the column, which it cannot for a rebuilt path
+     */
+    public boolean isSortable(int column) {
+        return column > 0 && (!pathIsResolved || column != columnNames.size() - 1);
+    }
+
+    /**
+     * @return The column the rows are sorted by, 0 for the order of the ids or of the search rank
+     */
+    public int getSortColumn() {
+        return sortColumn;
+    }
+
+    /**
+     * @return The direction of the sort
+     */
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    /**
+     * Sorts the rows by a column. Rows with the same value keep the order of their ids. The rows
+     * shown so far stay until the first rows in the new order arrive.
+     *
+     * @param column The model column, 0 for the order of the ids or of the search rank
+     * @param order The direction, {@link SortOrder#ASCENDING} unless it is descending
+     */
+    public void sort(int column, SortOrder order) {
+        if (column != 0 && !isSortable(column)) {
+            throw new IllegalArgumentException("Column cannot be sorted: " + getColumnName(column));
+        }
+        sortColumn = column;
+        sortOrder = order == SortOrder.DESCENDING ? SortOrder.DESCENDING : SortOrder.ASCENDING;
+        reload(false, null);
+    }
+
+    /**
+     * Shows only the rows found by a search. The search runs in the background and replaces the
+     * rows shown so far once its first rows are found.
+     *
+     * @param query The search, a ranked one is shown in the order of its rank until the rows are
+     *              sorted by a column
+     */
+    public void setFilter(SearchDBFile.Query query) {
+        filtered = true;
+        ranked = query.ranked();
+        if (ranked) {
+            // A new ranking replaces any column sort, like picking the search again
+            sortColumn = 0;
+            sortOrder = SortOrder.ASCENDING;
+        }
+
+        reload(false, () -> writeFilter(query));
+    }
+
+    /**
+     * Shows every row again
+     */
+    public void clearFilter() {
+        filtered = false;
+        ranked = false;
+        reload(false, null);
+    }
+
+    /**
+     * Reads the table again after it was changed by another connection, keeping the search and
+     * the sort
+     */
+    public void refresh() {
+        reload(filtered, null);
+    }
+
+    /**
+     * Finds where each page starts in the background, after interrupting the work of the
+     * previous load
+     *
+     * @param countTotal Whether to count the rows of the whole table as well, which a load
+     *                   without a filter does anyway
+     * @param prepare Run on the loader thread before the rows are read, or null
+     */
+    private void reload(boolean countTotal, SQLRunnable prepare) {
+        String sortKey = getSortKey();
+        // Only an unfiltered sort by an indexed column can be read in order straight from the table
+        boolean keyed = sortKey != null && (filtered || !indexedColumns.contains(columnNames.get(sortColumn)));
+        Load load = new Load(latestLoad + 1, sortKey, sortOrder == SortOrder.ASCENDING, filtered, countTotal, keyed);
+        latestLoad = load.id();
+
+        // A search or scan of an older load fails with an interrupted error instead of finishing
+        CreateDBFile.interrupt(connection);
+
+        loader.execute(() -> {
+            if (load.id() != latestLoad) {
+                // Replaced before it started
+                return;
+            }
+            try {
+                if (prepare != null) {
+                    prepare.run();
+                }
+                startScan(load);
+            } catch (SQLException e) {
+                // Shows no rows rather than the rows of the previous load under the new sort
+                if (load.id() == latestLoad) {
+                    e.printStackTrace();
+                }
+                publishChunk(load, List.of(), List.of(), 0, -1, null);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface SQLRunnable {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Replaces the rows of the filter table with the rows a search selects. Runs on the loader thread.
+     */
+    private void writeFilter(SearchDBFile.Query query) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT OR IGNORE INTO " + FILTER_TABLE + " (id, rank) " + query.sql())) {
+            statement.execute("DELETE FROM " + FILTER_TABLE);
+
+            for (int i = 0; i < query.parameters().size(); i++) {
+                insert.setObject(i + 1, query.parameters().get(i));
+            }
+            insert.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Starts reading the sort key of every row of a load. Runs on the loader thread.
+     */
+    private void startScan(Load load) throws SQLException {
+        startedLoad = load.id();
+
+        int totalRows = -1;
+        if (load.countTotal()) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM valid")) {
+                totalRows = resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }
+
+        if (load.keyed() && !copyKeys(load)) {
+            // Replaced while the keys were copied
+            return;
+        }
+        continueScan(load, 0, totalRows, null, null);
+    }
+
+    /**
+     * Copies the sort key of every row of a load into the key table and indexes it. The rows are
+     * copied in short steps by id, so the file is never read for long. Runs on the loader thread.
+     *
+     * @return false if a newer load replaced this one before the copy was done
+     */
+    private boolean copyKeys(Load load) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + KEY_TABLE);
+            statement.execute("CREATE TABLE " + KEY_TABLE + " (id INTEGER PRIMARY KEY, key COLLATE NOCASE)");
+        }
+
+        String id = load.baseIdColumn();
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + KEY_TABLE + " (id, key) SELECT " +
+                id + ", " + load.sortKey() + load.baseFrom() + " WHERE " + id + " > ? ORDER BY " + id + " LIMIT " + CHUNK_ROWS);
+             PreparedStatement lastId = connection.prepareStatement("SELECT MAX(id) FROM " + KEY_TABLE)) {
+            long copiedId = Long.MIN_VALUE;
+            while (load.id() == latestLoad) {
+                insert.setLong(1, copiedId);
+                if (insert.executeUpdate() < CHUNK_ROWS) {
+                    // Building the index only writes the temporary database
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("CREATE INDEX " + KEY_TABLE + "_order ON nebby_keys (key, id)");
+                    }
+                    return true;
+                }
+                try (ResultSet resultSet = lastId.executeQuery()) {
+                    copiedId = resultSet.next() ? resultSet.getLong(1) : Long.MAX_VALUE;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the keys of the next chunk of rows and hands them to the table. The next chunk is
+     * queued behind the page reads requested in the meantime, and starts after the last row of
+     * this one. Runs on the loader thread.
+     *
+     * @param lastKey The sort key of the last row read so far
+     * @param lastId The id of the last row read so far, or null for the first chunk
+     */
+    private void continueScan(Load load, int rowsSoFar, int totalRows, Object lastKey, Long lastId) {
+        if (load.id() != latestLoad) {
+            // A newer load replaces this one
+            return;
+        }
+
+        List<Object> keys = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        int[] rows = {rowsSoFar};
+        Object[] lastRow = {lastKey, lastId};
+        boolean done = true;
+        try {
+            String columns = (load.key() != null ? load.key() : "NULL") + ", " + load.idColumn();
+            int readRows = readRows(load, columns, load.scanFrom(), lastKey, lastId, false, CHUNK_ROWS, resultSet -> {
+                if (rows[0] % PAGE_SIZE == 0) {
+                    keys.add(resultSet.getObject(1));
+                    ids.add(resultSet.getLong(2));
+                }
+                rows[0]++;
+                lastRow[0] = resultSet.getObject(1);
+                lastRow[1] = resultSet.getLong(2);
+            });
+            done = readRows < CHUNK_ROWS;
+
+            // The first page is read together with the first chunk, so the top of the table
+            // appears at once
+            List<Vector<Object>> firstPage = rowsSoFar == 0 && !ids.isEmpty()
+                    ? readPage(load, keys.get(0), ids.get(0)) : null;
+            publishChunk(load, keys, ids, rows[0], totalRows, firstPage);
+        } catch (SQLException e) {
+            // An interrupted scan belongs to a load that was replaced
+            if (load.id() == latestLoad) {
+                e.printStackTrace();
+            }
+            done = true;
+            publishChunk(load, keys, ids, rows[0], totalRows, null);
+        }
+
+        if (!done) {
+            int scannedRows = rows[0];
+            loader.execute(() -> continueScan(load, scannedRows, totalRows, lastRow[0], (Long) lastRow[1]));
+        }
+    }
+
+    /**
+     * Hands a chunk of page starts to the event dispatch thread
+     */
+    private void publishChunk(Load load, List<Object> keys, List<Long> ids, int rows, int totalRows,
+                              List<Vector<Object>> firstPage) {
+        SwingUtilities.invokeLater(() -> addChunk(load, keys, ids, rows, totalRows, firstPage));
+    }
+
+    /**
+     * Adds a chunk of page starts. The first chunk of a load replaces the rows shown so far.
+     */
+    private void addChunk(Load load, List<Object> keys, List<Long> ids, int rows, int totalRows,
+                          List<Vector<Object>> firstPage) {
+        if (closed || load.id() != latestLoad) {
+            return;
+        }
+
+        boolean first = load != shownLoad;
+        if (first) {
+            shownLoad = load;
+            pages.clear();
+            requestedPages.clear();
+            pageKeys.clear();
+            pageIds.clear();
+            if (firstPage != null) {
+                pages.put(0, firstPage);
+            }
+        }
+
+        int previousRows = first ? 0 : rowCount;
+        pageKeys.addAll(keys);
+        pageIds.addAll(ids);
+        rowCount = rows;
+        if (!load.filtered()) {
+            totalRowCount = rows;
+        } else if (totalRows >= 0) {
+            totalRowCount = totalRows;
+        }
+
+        if (first) {
+            fireTableDataChanged();
+        } else if (rows > previousRows) {
+            fireTableRowsInserted(previousRows, rows - 1);
+        }
+    }
+
+    /**
+     * Reads a page in the background, unless it has been asked for already
+     */
+    private void requestPage(int page) {
+        if (closed || page >= pageIds.size() || !requestedPages.add(page)) {
+            return;
+        }
+
+        Load load = shownLoad;
+        Object startKey = pageKeys.get(page);
+        long startId = pageIds.get(page);
+        loader.execute(() -> {
+            // A newer load may already have changed the filter table
+            if (load.id() != startedLoad) {
+                return;
+            }
+
+            List<Vector<Object>> rows;
+            try {
+                rows = readPage(load, startKey, startId);
+            } catch (SQLException e) {
+                if (load.id() != latestLoad) {
+                    // Interrupted by a newer load, the page is not shown anymore
+                    return;
+                }
+                // Cached as empty, so painting does not ask for it again and again
+                e.printStackTrace();
+                rows = List.of();
+            }
+
+            List<Vector<Object>> pageRows = rows;
+            SwingUtilities.invokeLater(() -> {
+                if (closed || load != shownLoad) {
+                    return;
+                }
+                requestedPages.remove(page);
+                pages.put(page, pageRows);
+
+                int firstRow = page * PAGE_SIZE;
+                int lastRow = Math.min(rowCount, firstRow + PAGE_SIZE) - 1;
+                if (lastRow >= firstRow) {
+                    fireTableRowsUpdated(firstRow, lastRow);
+                }
+            });
+        });
+    }
+
+    /**
+     * Reads the rows of a page, starting at the key found for it. Runs on the loader thread.
+     */
+    private List<Vector<Object>> readPage(Load load, Object startKey, long startId) throws SQLException {
+        List<Vector<Object>> rows = new ArrayList<>(PAGE_SIZE);
+        readRows(load, "v.*", load.from(), startKey, startId, true, PAGE_SIZE,
+                resultSet -> rows.add(LoadDBFile.readRow(resultSet, displayedColumns, timestampColumns, pathResolver)));
+        return rows;
+    }
+
+    @FunctionalInterface
+    private interface RowReader {
+        void read(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Reads rows of a load in its order with keyset queries. Every statement is closed before
+     * this returns. Runs on the loader thread.
+     *
+     * @param columns The columns to select
+     * @param from The FROM clause, it has to provide the columns of the load's order
+     * @param startKey The sort key of the row to start at
+     * @param startId The id of the row to start at, or null to start at the top
+     * @param inclusive Whether the row to start at is read as well
+     * @param limit The maximum number of rows to read
+     * @param reader Called for every row
+     * @return The number of rows read, less than the limit only at the end of the rows
+     */
+    private int readRows(Load load, String columns, String from, Object startKey, Long startId, boolean inclusive, int limit,
+                         RowReader reader) throws SQLException {
+        String key = load.key();
+        String id = load.idColumn();
+        boolean ascending = load.ascending();
+        String idOperator = (ascending ? " >" : " <") + (inclusive ? "= " : " ");
+
+        // SQLite sorts NULL first and row value comparisons never match NULL, so rows with a NULL
+        // key are read as a segment of their own. A single condition joined with OR would make
+        // SQLite read the whole table instead of seeking to the start.
+        int segments = key == null ? 1 : 2;
+        int segment = key == null || startId == null || (startKey == null) == ascending ? 0 : 1;
+        boolean positioned = startId != null;
+
+        int rows = 0;
+        for (; segment < segments && rows < limit; segment++) {
+            boolean nullSegment = (segment == 0) == ascending;
+            String condition;
+            List<Object> parameters = new ArrayList<>();
+            if (key == null) {
+                condition = positioned ? id + idOperator + "?" : "1";
+            } else if (nullSegment) {
+                condition = key + " IS NULL" + (positioned ? " AND " + id + idOperator + "?" : "");
+            } else if (positioned) {
+                // The first comparison is implied by the second, but SQLite only seeks the index
+                // for a plain comparison
+                condition = key + (ascending ? " >= ?" : " <= ?") + " AND (" + key + ", " + id + ")" + idOperator + "(?, ?)";
+                parameters.add(startKey);
+                parameters.add(startKey);
+            } else {
+                condition = key + " IS NOT NULL";
+            }
+            if (positioned) {
+                parameters.add(startId);
+            }
+            positioned = false;
+
+            String query = "SELECT " + columns + from + " WHERE " + condition + load.orderBy() + " LIMIT " + (limit - rows);
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    statement.setObject(i + 1, parameters.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        reader.read(resultSet);
+                        rows++;
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return The SQL expression the rows are sorted by before their id, or null to sort by id only
+     */
+    private String getSortKey() {
+        if (sortColumn == 0) {
+            return ranked ? "f.rank" : null;
+        }
+        // Names sort like the index of an indexed column, ignoring case. Numbers sort the same
+        // either way, but only a plain key can use the index of a time column.
+        String column = columnNames.get(sortColumn);
+        return "v." + column + (isIntegerColumn(column) ? "" : " COLLATE NOCASE");
+    }
+
+    /**
+     * @return Whether a column of the "valid" table holds numbers written by the crawl
+     */
+    private static boolean isIntegerColumn(String column) {
+        return column.equalsIgnoreCase(CreateDBFile.MODIFIED_COLUMN) || column.equalsIgnoreCase(CreateDBFile.CREATED_COLUMN)
+                || column.equalsIgnoreCase(CreateDBFile.CHILD_COUNT_COLUMN);
+    }
+
+    /**
+     * Stops reading and closes the connection in the background
+     */
+    @Override
+    public void close() {
+        closed = true;
+        latestLoad = -1;
+        pages.clear();
+        CreateDBFile.interrupt(connection);
+        loader.execute(() -> {
+            try {
+                if (pathResolver != null) {
+                    pathResolver.close();
+                }
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        });
+        loader.shutdown();
+    }
+}
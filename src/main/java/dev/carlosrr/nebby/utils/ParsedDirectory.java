@@ -0,0 +1,24 @@
+package dev.carlosrr.nebby.utils;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+/**
+ * A directory whose name has already been split into the name column values, ready for a
+ * {@link DBWriter} to bind
+ *
+ * @param info The directory
+ * @param values The value of every name column, or null if the name does not fit the columns
+ */
+public record ParsedDirectory(DirectoryInfo info, String[] values) {
+
+    /**
+     * Splits the name of a directory
+     *
+     * @param info The directory
+     * @param parser The parser of the calling thread
+     * @return The parsed directory
+     */
+    public static ParsedDirectory parse(DirectoryInfo info, FilenameParser parser) {
+        return new ParsedDirectory(info, parser.split(info.getFilename()));
+    }
+}
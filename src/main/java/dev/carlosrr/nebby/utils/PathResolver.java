@@ -0,0 +1,84 @@
+package dev.carlosrr.nebby.utils;
+
+import dev.carlosrr.nebby.methods.IndexDBFromDirectory.DirectoryInfo;
+
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds full directory paths from the "directories" table, where every directory only stores
+ * its own name and the id of its parent.
+ * <p>
+ * Rows are usually read in the order they were written, so siblings and cousins follow each other
+ * closely. The paths of recently resolved directories are kept in a small LRU cache, which means
+ * resolving a row normally costs a single lookup of its own directory.
+ */
+public class PathResolver implements AutoCloseable {
+
+    // Number of resolved directory paths kept around
+    private static final int CACHE_SIZE = 4096;
+
+    private final PreparedStatement directoryStatement;
+    private final String separator;
+
+    private final Map<Long, String> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * @param connection Database connection
+     * @param separator The name separator of the file system the index was created on
+     * @throws SQLException if an error occurs
+     */
+    public PathResolver(Connection connection, String separator) throws SQLException {
+        this.directoryStatement = connection.prepareStatement("SELECT parent_id, name FROM directories WHERE id = ?");
+        this.separator = separator;
+    }
+
+    /**
+     * Rebuilds the full path of a directory
+     *
+     * @param id The id of the directory
+     * @return The full path, or null if the directory is not in the index
+     * @throws SQLException if an error occurs
+     */
+    public String resolve(long id) throws SQLException {
+        String path = cache.get(id);
+        if (path != null) {
+            return path;
+        }
+
+        long parentId;
+        String name;
+        directoryStatement.setLong(1, id);
+        try (ResultSet resultSet = directoryStatement.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            parentId = resultSet.getLong(1);
+            name = resultSet.getString(2);
+        }
+
+        // The root is stored with its full path as its name
+        if (parentId == DirectoryInfo.NO_PARENT) {
+            path = name;
+        } else {
+            String parentPath = resolve(parentId);
+            path = parentPath != null ? DirectoryInfo.joinPath(parentPath, name, separator) : null;
+        }
+
+        if (path != null) {
+            cache.put(id, path);
+        }
+        return path;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        directoryStatement.close();
+    }
+}
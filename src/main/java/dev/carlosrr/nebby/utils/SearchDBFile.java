@@ -0,0 +1,252 @@
+package dev.carlosrr.nebby.utils;
+
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns searches of the "valid" table into SQL that uses the indexes built when it was created.
+ * <p>
+ * The full-text index covers every name column and answers ranked word-prefix queries, and the
+ * optional trigram index answers searches for any part of a name. Each
+ * column chosen for a search index also has a case-insensitive index, so a prefix search on that
+ * column is a range scan of that index instead of a scan of every row. Any other search is a
+ * scan of the table by the database.
+ * <p>
+ * The searches are not run here. Each one is a {@link Query} for the {@link PagedTableModel},
+ * which runs it on its own connection in the background and shows the rows it selects. Search
+ * text is always bound as a parameter and matched literally.
+ */
+public class SearchDBFile {
+
+    /**
+     * A search as SQL
+     *
+     * @param sql Selects the id of every matching row of the "valid" table and its rank, or NULL
+     *            as the rank if the search is not ranked
+     * @param parameters Bound to the placeholders in order
+     * @param ranked Whether the rows are shown in the order of their rank, lowest first
+     */
+    public record Query(String sql, List<Object> parameters, boolean ranked) {
+    }
+
+    private final List<String> indexedColumns = new ArrayList<>();
+    private final List<String> textColumns = new ArrayList<>();
+    private final boolean hasFullText;
+    private final boolean hasSubstringIndex;
+    private final boolean hasNormalizedPaths;
+    private final boolean hasPathsView;
+    private final String separator;
+
+    /**
+     * Reads which indexes the file has
+     *
+     * @param dbFile The database file to search
+     * @throws SQLException if the database cannot be read
+     */
+    public SearchDBFile(File dbFile) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath())) {
+            hasFullText = hasTable(connection, CreateDBFile.FULL_TEXT_TABLE);
+            hasSubstringIndex = hasTable(connection, CreateDBFile.SUBSTRING_TABLE);
+            textColumns.addAll(readTextColumns(connection));
+
+            // Only columns whose index was actually built are offered
+            IndexMetadata metadata = IndexMetadata.read(connection);
+            if (metadata != null) {
+                List<String> nameColumns = Arrays.asList(CreateDBFile.getNameColumns(metadata.getColumnsInput()));
+                Set<String> existingIndexes = readIndexNames(connection);
+                for (String column : CreateDBFile.parseColumnNames(metadata.getIndexedColumnsInput())) {
+                    if (nameColumns.contains(column) && existingIndexes.contains(CreateDBFile.getSearchIndexName(column))) {
+                        indexedColumns.add(column);
+                    }
+                }
+            }
+
+            // Files that store the path in every row have it among the text columns
+            hasNormalizedPaths = IndexMetadata.hasNormalizedPaths(metadata);
+            separator = metadata != null ? metadata.getSeparator() : File.separator;
+            hasPathsView = hasSchemaObject(connection, "view", "directory_paths");
+        }
+    }
+
+    private static Set<String> readIndexNames(Connection connection) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'valid'")) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString(1));
+            }
+        }
+        return names;
+    }
+
+    private static List<String> readTextColumns(Connection connection) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT name FROM pragma_table_info('valid') WHERE type = 'TEXT'")) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString(1));
+            }
+        }
+        return columns;
+    }
+
+    private static boolean hasTable(Connection connection, String name) throws SQLException {
+        return hasSchemaObject(connection, "table", name);
+    }
+
+    private static boolean hasSchemaObject(Connection connection, String type, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = ? AND name = ?")) {
+            statement.setString(1, type);
+            statement.setString(2, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /**
+     * @return Whether the file has a full-text index, files created by older versions do not
+     */
+    public boolean hasFullText() {
+        return hasFullText;
+    }
+
+    /**
+     * Finds the rows with a name containing a word that starts with each of the search words,
+     * best matches first
+     *
+     * @param text The search words, separated by spaces
+     * @return The search, ranked by the full-text index
+     */
+    public Query fullText(String text) {
+        if (!hasFullText) {
+            throw new IllegalStateException("This file has no full-text index");
+        }
+
+        String query = buildFullTextQuery(text);
+        if (query.isEmpty()) {
+            return new Query("SELECT id, NULL FROM valid WHERE 0", List.of(), false);
+        }
+        return new Query("SELECT rowid, rank FROM " + CreateDBFile.FULL_TEXT_TABLE +
+                " WHERE " + CreateDBFile.FULL_TEXT_TABLE + " MATCH ?", List.of(query), true);
+    }
+
+    /**
+     * @return Whether the file has a trigram index for searching any part of a name
+     */
+    public boolean hasSubstringIndex() {
+        return hasSubstringIndex;
+    }
+
+    /**
+     * Finds the rows with a name that contains the text anywhere, ignoring case. The whole name is
+     * searched, also across the parts a splitter separated. The trigram index narrows the search
+     * down to the directories whose name contains every three characters of the text.
+     *
+     * @param text The text to look for, at least {@link CreateDBFile#MIN_SUBSTRING_LENGTH} characters
+     * @return The search
+     */
+    public Query containing(String text) {
+        if (!hasSubstringIndex) {
+            throw new IllegalStateException("This file has no substring index");
+        }
+        if (text.codePointCount(0, text.length()) < CreateDBFile.MIN_SUBSTRING_LENGTH) {
+            throw new IllegalArgumentException("Search text is too short for the substring index: " + text);
+        }
+
+        // The whole text is one quoted phrase, which the trigram tokenizer matches as a substring
+        return new Query("SELECT id, NULL FROM valid WHERE dir_id IN (SELECT rowid FROM " + CreateDBFile.SUBSTRING_TABLE +
+                " WHERE " + CreateDBFile.SUBSTRING_TABLE + " MATCH ?)", List.of("\"" + text.replace("\"", "\"\"") + "\""), false);
+    }
+
+    /**
+     * Finds the rows with the text anywhere in a name column or in the path, ignoring case for
+     * ASCII letters. No index helps with this, so every row is read.
+     * <p>
+     * A path contains text without a separator exactly when the name of the directory or of one
+     * of its parents does, so only the names are read and the matches are followed down the tree.
+     * Only text with a separator needs the full path of every directory, which files without the
+     * "directory_paths" view cannot match.
+     *
+     * @param text The text to look for
+     * @return The search
+     */
+    public Query matching(String text) {
+        String pattern = "%" + escapeLike(text) + "%";
+
+        if (hasNormalizedPaths) {
+            // Every name column is part of the directory name, so the path covers them
+            String matchingDirectories = text.contains(separator) && hasPathsView
+                    ? "SELECT id FROM directory_paths WHERE path LIKE ? ESCAPE '\\'"
+                    : "WITH RECURSIVE matched(id) AS (SELECT id FROM directories WHERE name LIKE ? ESCAPE '\\' " +
+                      "UNION SELECT d.id FROM directories d JOIN matched m ON d.parent_id = m.id) SELECT id FROM matched";
+            return new Query("SELECT id, NULL FROM valid WHERE dir_id IN (" + matchingDirectories + ")", List.of(pattern), false);
+        }
+
+        if (textColumns.isEmpty()) {
+            return new Query("SELECT id, NULL FROM valid WHERE 0", List.of(), false);
+        }
+
+        // Every condition shares the one pattern parameter
+        List<String> conditions = new ArrayList<>();
+        for (String column : textColumns) {
+            conditions.add(column + " LIKE ?1 ESCAPE '\\'");
+        }
+        return new Query("SELECT id, NULL FROM valid WHERE " + String.join(" OR ", conditions), List.of(pattern), false);
+    }
+
+    /**
+     * Turns the search words into an FTS5 query. Every word is quoted, so operators and
+     * punctuation are matched literally, and becomes a prefix search. All words have to match.
+     */
+    private static String buildFullTextQuery(String text) {
+        StringBuilder query = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('"').append(word.replace("\"", "\"\"")).append("\"*");
+        }
+        return query.toString();
+    }
+
+    /**
+     * @return The columns that can be searched through an index, empty if none were chosen
+     */
+    public List<String> getIndexedColumns() {
+        return indexedColumns;
+    }
+
+    /**
+     * Finds the rows whose column starts with the given text, ignoring case
+     *
+     * @param column One of the {@link #getIndexedColumns() indexed columns}
+     * @param prefix The text the value has to start with
+     * @return The search
+     */
+    public Query startingWith(String column, String prefix) {
+        if (!indexedColumns.contains(column)) {
+            throw new IllegalArgumentException("Column has no search index: " + column);
+        }
+
+        // LIKE only uses the NOCASE index for patterns that do not start with a wildcard
+        return new Query("SELECT id, NULL FROM valid WHERE " + column + " LIKE ? ESCAPE '\\'",
+                List.of(escapeLike(prefix) + "%"), false);
+    }
+
+    /**
+     * Escapes the wildcards of a LIKE pattern so the text is matched literally
+     */
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}